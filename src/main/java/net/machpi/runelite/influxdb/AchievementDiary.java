@@ -17,32 +17,41 @@ public enum AchievementDiary {
     WESTERN(6327, 6328, 6329, 6330),
     KOUREND(7933, 7934, 7935, 7936);
 
-    private final int varbitEasy;
-    private final int varbitMedium;
-    private final int varbitHard;
-    private final int varbitElite;
+    public enum Tier {
+        EASY,
+        MEDIUM,
+        HARD,
+        ELITE
+    }
+
+    private final int[] varbits;
 
     AchievementDiary(int varbitEasy, int varbitMedium, int varbitHard, int varbitElite) {
-        this.varbitEasy = varbitEasy;
-        this.varbitMedium = varbitMedium;
-        this.varbitHard = varbitHard;
-        this.varbitElite = varbitElite;
+        this.varbits = new int[]{varbitEasy, varbitMedium, varbitHard, varbitElite};
+    }
+
+    public int getVarbit(Tier tier) {
+        return varbits[tier.ordinal()];
+    }
+
+    public int get(Client client, Tier tier) {
+        return client.getVarbitValue(getVarbit(tier));
     }
 
     public int getEasy(Client client) {
-        return client.getVarbitValue(varbitEasy);
+        return get(client, Tier.EASY);
     }
 
     public int getMedium(Client client) {
-        return client.getVarbitValue(varbitMedium);
+        return get(client, Tier.MEDIUM);
     }
 
     public int getHard(Client client) {
-        return client.getVarbitValue(varbitHard);
+        return get(client, Tier.HARD);
     }
 
     public int getElite(Client client) {
-        return client.getVarbitValue(varbitElite);
+        return get(client, Tier.ELITE);
     }
 
     public int getTotal(Client client) {
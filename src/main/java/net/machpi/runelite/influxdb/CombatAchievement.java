@@ -20,6 +20,10 @@ public enum CombatAchievement {
         this.enumId = enumId;
     }
 
+    public int getVarbit() {
+        return varbitId;
+    }
+
     public int getCompleted(Client client) {
         return client.getVarbitValue(varbitId);
     }
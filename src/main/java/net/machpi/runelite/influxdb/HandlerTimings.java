@@ -0,0 +1,95 @@
+package net.machpi.runelite.influxdb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in the plugin's client thread event handlers, kept in fixed power-of-two microsecond histograms, plus
+ * the time spent since the last game tick so low priority work can be deferred when a tick's budget is used up.
+ * Only written from the client thread; {@link #summary()} may observe slightly stale values from other threads.
+ */
+final class HandlerTimings {
+    enum Handler {
+        GAME_TICK,
+        ITEM_CONTAINER_CHANGED,
+        STAT_CHANGED,
+        VARBIT_CHANGED
+    }
+
+    /**
+     * Bucket 0 holds durations under 1us, and bucket {@code i} durations in {@code [2^(i-1), 2^i)}us, with the last
+     * bucket also holding anything longer.
+     */
+    private static final int BUCKETS = 22;
+    private static final Handler[] HANDLERS = Handler.values();
+
+    private final long[][] histograms = new long[HANDLERS.length][BUCKETS];
+    private final long[] totalNanos = new long[HANDLERS.length];
+    private final long[] maxNanos = new long[HANDLERS.length];
+    private long tickNanos;
+
+    long start() {
+        return System.nanoTime();
+    }
+
+    void record(Handler handler, long start) {
+        final long elapsed = System.nanoTime() - start;
+        final int h = handler.ordinal();
+        final long micros = TimeUnit.NANOSECONDS.toMicros(elapsed);
+        histograms[h][Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))]++;
+        totalNanos[h] += elapsed;
+        maxNanos[h] = Math.max(maxNanos[h], elapsed);
+        tickNanos += elapsed;
+    }
+
+    /**
+     * Has the time spent in handlers since the last tick, plus the current handler so far, exceeded the budget?
+     */
+    boolean isOverBudget(long currentStart, long budgetNanos) {
+        return tickNanos + (System.nanoTime() - currentStart) > budgetNanos;
+    }
+
+    /**
+     * Starts accounting for a new tick.
+     */
+    void resetTick() {
+        tickNanos = 0;
+    }
+
+    String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Handler handler : HANDLERS) {
+            final int h = handler.ordinal();
+            long count = 0;
+            for (long bucket : histograms[h]) {
+                count += bucket;
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(handler.name()).append(": n=").append(count)
+                    .append(" mean=").append(TimeUnit.NANOSECONDS.toMicros(totalNanos[h] / count)).append("us")
+                    .append(" p50<").append(percentileMicros(h, count, 0.5)).append("us")
+                    .append(" p99<").append(percentileMicros(h, count, 0.99)).append("us")
+                    .append(" max=").append(TimeUnit.NANOSECONDS.toMicros(maxNanos[h])).append("us");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Upper bound of the bucket containing the given percentile.
+     */
+    private long percentileMicros(int h, long count, double percentile) {
+        final long target = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histograms[h][bucket];
+            if (seen >= target) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+}
@@ -3,6 +3,7 @@ package net.machpi.runelite.influxdb;
 import net.runelite.client.config.Config;
 import net.runelite.client.config.ConfigGroup;
 import net.runelite.client.config.ConfigItem;
+import net.runelite.client.config.ConfigSection;
 import net.runelite.client.config.Range;
 import net.runelite.client.config.Units;
 
@@ -11,6 +12,54 @@ public interface InfluxDbConfig extends Config {
     String GROUP = "influxdb";
     String WRITE_INTERVAL = "writeInterval";
 
+    @ConfigSection(
+            name = "InfluxDB 2",
+            description = "Write through the v2 API, with an organization, bucket and token instead of a database",
+            position = 99,
+            closedByDefault = true
+    )
+    String V2_SECTION = "influxDb2";
+
+    @ConfigSection(
+            name = "File Output",
+            description = "Keep measurements in the RuneLite directory, for machines without access to a server",
+            position = 100,
+            closedByDefault = true
+    )
+    String FILE_SECTION = "fileOutput";
+
+    @ConfigSection(
+            name = "UDP Output",
+            description = "Send line protocol over UDP, without waiting for the server to respond",
+            position = 101,
+            closedByDefault = true
+    )
+    String UDP_SECTION = "udpOutput";
+
+    @ConfigSection(
+            name = "OpenTelemetry Output",
+            description = "Export measurements as OTLP metrics to an OpenTelemetry collector",
+            position = 102,
+            closedByDefault = true
+    )
+    String OTLP_SECTION = "otlpOutput";
+
+    @ConfigSection(
+            name = "Prometheus Endpoint",
+            description = "Serve the latest values on localhost for a Prometheus scraper",
+            position = 103,
+            closedByDefault = true
+    )
+    String METRICS_SECTION = "metricsEndpoint";
+
+    @ConfigSection(
+            name = "Shared Uploads",
+            description = "Upload for every client on this machine through whichever client started first",
+            position = 104,
+            closedByDefault = true
+    )
+    String SHARED_SECTION = "sharedUploads";
+
     @ConfigItem(
             keyName = "serverUrl",
             name = "Server URL",
@@ -160,4 +209,313 @@ public interface InfluxDbConfig extends Config {
     default int activityTimeout() {
         return 5;
     }
+
+    @ConfigItem(
+            keyName = "activityKeepAlive",
+            name = "Activity keep-alive",
+            description = "How often to re-submit activity when it hasn't changed (changes are submitted immediately)",
+            position = 15
+    )
+    @Units(Units.SECONDS)
+    @Range(min = 10, max = 60 * 60)
+    default int activityKeepAliveSeconds() {
+        return 50;
+    }
+
+    @ConfigItem(
+            keyName = "aggregateLoot",
+            name = "Aggregate Loot",
+            description = "Sum loot per source over each recording interval instead of submitting every drop, omitting the kill location",
+            position = 16
+    )
+    default boolean aggregateLoot() {
+        return false;
+    }
+
+    @ConfigItem(
+            keyName = "tickBudget",
+            name = "Tick time budget",
+            description = "Client thread time per game tick after which player location, metadata and achievements are deferred to later ticks",
+            position = 17
+    )
+    @Units(Units.MILLISECONDS)
+    @Range(min = 1, max = 600)
+    default int tickBudgetMillis() {
+        return 2;
+    }
+
+    @ConfigItem(
+            keyName = "writeToFile",
+            name = "Write To File",
+            description = "Write measurements to line protocol files in .runelite/influxdb/lines, in addition to any server",
+            position = 18,
+            section = FILE_SECTION
+    )
+    default boolean writeToFile() {
+        return false;
+    }
+
+    @ConfigItem(
+            keyName = "fileRotateSize",
+            name = "Rotate at size",
+            description = "Start a new file once the current one reaches this size",
+            position = 19,
+            section = FILE_SECTION
+    )
+    @Units(" MB")
+    @Range(min = 1, max = 1024)
+    default int fileRotateMegabytes() {
+        return 16;
+    }
+
+    @ConfigItem(
+            keyName = "fileRotateAge",
+            name = "Rotate at age",
+            description = "Start a new file once the current one has been open this long",
+            position = 20,
+            section = FILE_SECTION
+    )
+    @Units(Units.MINUTES)
+    @Range(min = 1, max = 7 * 24 * 60)
+    default int fileRotateMinutes() {
+        return 24 * 60;
+    }
+
+    @ConfigItem(
+            keyName = "fileCompress",
+            name = "Compress files",
+            description = "Gzip line protocol files (import with influx -import -compressed)",
+            position = 21,
+            section = FILE_SECTION
+    )
+    default boolean fileCompress() {
+        return false;
+    }
+
+    @ConfigItem(
+            keyName = "writeToLocalStore",
+            name = "Keep Local History",
+            description = "Keep a compact history of measurements in .runelite/influxdb/store, independent of any server",
+            position = 22,
+            section = FILE_SECTION
+    )
+    default boolean writeToLocalStore() {
+        return false;
+    }
+
+    @ConfigItem(
+            keyName = "writeUdp",
+            name = "Send Over UDP",
+            description = "Send measurements to an influx UDP listener or Telegraf socket listener, in addition to any server",
+            position = 23,
+            section = UDP_SECTION
+    )
+    default boolean writeUdp() {
+        return false;
+    }
+
+    @ConfigItem(
+            keyName = "udpHost",
+            name = "UDP Host",
+            description = "Host of the UDP listener",
+            position = 24,
+            section = UDP_SECTION
+    )
+    default String getUdpHost() {
+        return "localhost";
+    }
+
+    @ConfigItem(
+            keyName = "udpPort",
+            name = "UDP Port",
+            description = "Port of the UDP listener",
+            position = 25,
+            section = UDP_SECTION
+    )
+    @Range(min = 1, max = 65535)
+    default int getUdpPort() {
+        return 8089;
+    }
+
+    @ConfigItem(
+            keyName = "udpPacketSize",
+            name = "UDP Packet Size",
+            description = "Largest datagram to send, which should fit the network's MTU to avoid fragmentation",
+            position = 26,
+            section = UDP_SECTION
+    )
+    @Units(" B")
+    @Range(min = 512, max = 65507)
+    default int udpPacketSize() {
+        return 1400;
+    }
+
+    @ConfigItem(
+            keyName = "timestampPrecision",
+            name = "Timestamp precision",
+            description = "Precision of written timestamps. Seconds make smaller writes, but points of a series in the same second overwrite each other, and files need influx -import -precision=s",
+            position = 27
+    )
+    default TimestampPrecision timestampPrecision() {
+        return TimestampPrecision.MILLISECONDS;
+    }
+
+    @ConfigItem(
+            keyName = "serverApiVersion",
+            name = "API Version",
+            description = "V1 writes to the database and retention policy, V2 to the organization and bucket below",
+            position = 28,
+            section = V2_SECTION
+    )
+    default ServerApiVersion serverApiVersion() {
+        return ServerApiVersion.V1;
+    }
+
+    @ConfigItem(
+            keyName = "serverOrg",
+            name = "Organization",
+            description = "Organization name or ID to write to",
+            position = 29,
+            section = V2_SECTION
+    )
+    default String getServerOrg() {
+        return "";
+    }
+
+    @ConfigItem(
+            keyName = "serverBucket",
+            name = "Bucket",
+            description = "Bucket to write to",
+            position = 30,
+            section = V2_SECTION
+    )
+    default String getServerBucket() {
+        return "";
+    }
+
+    @ConfigItem(
+            keyName = "serverToken",
+            name = "Token",
+            description = "API token with write access to the bucket",
+            position = 31,
+            section = V2_SECTION,
+            secret = true
+    )
+    default String getServerToken() {
+        return "";
+    }
+
+    @ConfigItem(
+            keyName = "writeOtlp",
+            name = "Export OTLP Metrics",
+            description = "Export measurements to an OpenTelemetry collector, in addition to any server",
+            position = 32,
+            section = OTLP_SECTION
+    )
+    default boolean writeOtlp() {
+        return false;
+    }
+
+    @ConfigItem(
+            keyName = "otlpEndpoint",
+            name = "Collector URL",
+            description = "Base URL of the collector's OTLP/HTTP receiver, which metrics are posted to at /v1/metrics",
+            position = 33,
+            section = OTLP_SECTION
+    )
+    default String getOtlpEndpoint() {
+        return "http://localhost:4318";
+    }
+
+    @ConfigItem(
+            keyName = "otlpTemporality",
+            name = "Sum temporality",
+            description = "Whether summed series such as aggregated loot are exported per interval or as running totals",
+            position = 34,
+            section = OTLP_SECTION
+    )
+    default OtlpTemporality otlpTemporality() {
+        return OtlpTemporality.DELTA;
+    }
+
+    @ConfigItem(
+            keyName = "serveMetrics",
+            name = "Serve Metrics",
+            description = "Serve the latest value of each series, except events such as loot, at http://localhost:<port>/metrics",
+            position = 35,
+            section = METRICS_SECTION
+    )
+    default boolean serveMetrics() {
+        return false;
+    }
+
+    @ConfigItem(
+            keyName = "metricsPort",
+            name = "Port",
+            description = "Local port to serve metrics on",
+            position = 36,
+            section = METRICS_SECTION
+    )
+    @Range(min = 1024, max = 65535)
+    default int metricsPort() {
+        return 9185;
+    }
+
+    @ConfigItem(
+            keyName = "additionalServers",
+            name = "Additional Servers",
+            description = "Complete write URLs of further servers to write to, one per line, e.g. http://host:8086/write?db=runelite&u=user&p=pass or https://host/api/v2/write?org=org&bucket=bucket&token=token",
+            position = 37,
+            secret = true
+    )
+    default String getAdditionalServers() {
+        return "";
+    }
+
+    @ConfigItem(
+            keyName = "shareUploads",
+            name = "Share Uploads",
+            description = "Hand points to the first client on this machine with sharing enabled and the same servers, which uploads them together with its own",
+            position = 38,
+            section = SHARED_SECTION
+    )
+    default boolean shareUploads() {
+        return false;
+    }
+
+    @ConfigItem(
+            keyName = "aggregatorPort",
+            name = "Port",
+            description = "Local port the uploading client listens on, the same for every client",
+            position = 39,
+            section = SHARED_SECTION
+    )
+    @Range(min = 1024, max = 65535)
+    default int aggregatorPort() {
+        return 9186;
+    }
+
+    @ConfigItem(
+            keyName = "shutdownTimeout",
+            name = "Shutdown deadline",
+            description = "How long closing the client waits for the final write, after which unwritten points are kept for the next session",
+            position = 40
+    )
+    @Units(Units.SECONDS)
+    @Range(min = 1, max = 60)
+    default int shutdownTimeoutSeconds() {
+        return 5;
+    }
+
+    @ConfigItem(
+            keyName = "unchangedKeepAlive",
+            name = "Unchanged keep-alive",
+            description = "How often to write values that haven't changed, including across sessions (changes are written immediately, 0 writes every value)",
+            position = 41
+    )
+    @Units(Units.MINUTES)
+    @Range(max = 24 * 60)
+    default int unchangedKeepAliveMinutes() {
+        return 60;
+    }
 }
@@ -0,0 +1,321 @@
+package net.machpi.runelite.influxdb;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Holds an immutable copy of {@link InfluxDbConfig}, since every read through the config proxy is a string lookup
+ * and parse.  The copy is only rebuilt when the config group changes.
+ */
+@Singleton
+public class InfluxDbConfigCache {
+    private final InfluxDbConfig config;
+    private volatile Snapshot snapshot;
+
+    @Inject
+    public InfluxDbConfigCache(InfluxDbConfig config) {
+        this.config = config;
+        this.snapshot = new Snapshot(config);
+    }
+
+    public InfluxDbConfig get() {
+        return snapshot;
+    }
+
+    public void refresh() {
+        snapshot = new Snapshot(config);
+    }
+
+    private static final class Snapshot implements InfluxDbConfig {
+        private final String serverUrl;
+        private final String database;
+        private final String serverUsername;
+        private final String serverPassword;
+        private final String serverRetentionPolicy;
+        private final boolean writeXp;
+        private final boolean writeBankValue;
+        private final boolean writeSelfLoc;
+        private final boolean writeSelfMeta;
+        private final boolean writeKillCount;
+        private final boolean writeActivity;
+        private final boolean writeLoot;
+        private final boolean writeSkillingItems;
+        private final int writeIntervalSeconds;
+        private final int activityTimeout;
+        private final int activityKeepAliveSeconds;
+        private final boolean aggregateLoot;
+        private final int tickBudgetMillis;
+        private final boolean writeToFile;
+        private final int fileRotateMegabytes;
+        private final int fileRotateMinutes;
+        private final boolean fileCompress;
+        private final boolean writeToLocalStore;
+        private final boolean writeUdp;
+        private final String udpHost;
+        private final int udpPort;
+        private final int udpPacketSize;
+        private final TimestampPrecision timestampPrecision;
+        private final ServerApiVersion serverApiVersion;
+        private final String serverOrg;
+        private final String serverBucket;
+        private final String serverToken;
+        private final boolean writeOtlp;
+        private final String otlpEndpoint;
+        private final OtlpTemporality otlpTemporality;
+        private final boolean serveMetrics;
+        private final int metricsPort;
+        private final String additionalServers;
+        private final boolean shareUploads;
+        private final int aggregatorPort;
+        private final int shutdownTimeoutSeconds;
+
+        private Snapshot(InfluxDbConfig config) {
+            this.serverUrl = config.getServerUrl();
+            this.database = config.getDatabase();
+            this.serverUsername = config.getServerUsername();
+            this.serverPassword = config.getServerPassword();
+            this.serverRetentionPolicy = config.getServerRetentionPolicy();
+            this.writeXp = config.writeXp();
+            this.writeBankValue = config.writeBankValue();
+            this.writeSelfLoc = config.writeSelfLoc();
+            this.writeSelfMeta = config.writeSelfMeta();
+            this.writeKillCount = config.writeKillCount();
+            this.writeActivity = config.writeActivity();
+            this.writeLoot = config.writeLoot();
+            this.writeSkillingItems = config.writeSkillingItems();
+            this.writeIntervalSeconds = config.writeIntervalSeconds();
+            this.activityTimeout = config.activityTimeout();
+            this.activityKeepAliveSeconds = config.activityKeepAliveSeconds();
+            this.aggregateLoot = config.aggregateLoot();
+            this.tickBudgetMillis = config.tickBudgetMillis();
+            this.writeToFile = config.writeToFile();
+            this.fileRotateMegabytes = config.fileRotateMegabytes();
+            this.fileRotateMinutes = config.fileRotateMinutes();
+            this.fileCompress = config.fileCompress();
+            this.writeToLocalStore = config.writeToLocalStore();
+            this.writeUdp = config.writeUdp();
+            this.udpHost = config.getUdpHost();
+            this.udpPort = config.getUdpPort();
+            this.udpPacketSize = config.udpPacketSize();
+            this.timestampPrecision = config.timestampPrecision();
+            this.serverApiVersion = config.serverApiVersion();
+            this.serverOrg = config.getServerOrg();
+            this.serverBucket = config.getServerBucket();
+            this.serverToken = config.getServerToken();
+            this.writeOtlp = config.writeOtlp();
+            this.otlpEndpoint = config.getOtlpEndpoint();
+            this.otlpTemporality = config.otlpTemporality();
+            this.serveMetrics = config.serveMetrics();
+            this.metricsPort = config.metricsPort();
+            this.additionalServers = config.getAdditionalServers();
+            this.shareUploads = config.shareUploads();
+            this.aggregatorPort = config.aggregatorPort();
+            this.shutdownTimeoutSeconds = config.shutdownTimeoutSeconds();
+        }
+
+        @Override
+        public String getServerUrl() {
+            return serverUrl;
+        }
+
+        @Override
+        public String getDatabase() {
+            return database;
+        }
+
+        @Override
+        public String getServerUsername() {
+            return serverUsername;
+        }
+
+        @Override
+        public String getServerPassword() {
+            return serverPassword;
+        }
+
+        @Override
+        public String getServerRetentionPolicy() {
+            return serverRetentionPolicy;
+        }
+
+        @Override
+        public boolean writeXp() {
+            return writeXp;
+        }
+
+        @Override
+        public boolean writeBankValue() {
+            return writeBankValue;
+        }
+
+        @Override
+        public boolean writeSelfLoc() {
+            return writeSelfLoc;
+        }
+
+        @Override
+        public boolean writeSelfMeta() {
+            return writeSelfMeta;
+        }
+
+        @Override
+        public boolean writeKillCount() {
+            return writeKillCount;
+        }
+
+        @Override
+        public boolean writeActivity() {
+            return writeActivity;
+        }
+
+        @Override
+        public boolean writeLoot() {
+            return writeLoot;
+        }
+
+        @Override
+        public boolean writeSkillingItems() {
+            return writeSkillingItems;
+        }
+
+        @Override
+        public int writeIntervalSeconds() {
+            return writeIntervalSeconds;
+        }
+
+        @Override
+        public int activityTimeout() {
+            return activityTimeout;
+        }
+
+        @Override
+        public int activityKeepAliveSeconds() {
+            return activityKeepAliveSeconds;
+        }
+
+        @Override
+        public boolean aggregateLoot() {
+            return aggregateLoot;
+        }
+
+        @Override
+        public int tickBudgetMillis() {
+            return tickBudgetMillis;
+        }
+
+        @Override
+        public boolean writeToFile() {
+            return writeToFile;
+        }
+
+        @Override
+        public int fileRotateMegabytes() {
+            return fileRotateMegabytes;
+        }
+
+        @Override
+        public int fileRotateMinutes() {
+            return fileRotateMinutes;
+        }
+
+        @Override
+        public boolean fileCompress() {
+            return fileCompress;
+        }
+
+        @Override
+        public boolean writeToLocalStore() {
+            return writeToLocalStore;
+        }
+
+        @Override
+        public boolean writeUdp() {
+            return writeUdp;
+        }
+
+        @Override
+        public String getUdpHost() {
+            return udpHost;
+        }
+
+        @Override
+        public int getUdpPort() {
+            return udpPort;
+        }
+
+        @Override
+        public int udpPacketSize() {
+            return udpPacketSize;
+        }
+
+        @Override
+        public TimestampPrecision timestampPrecision() {
+            return timestampPrecision;
+        }
+
+        @Override
+        public ServerApiVersion serverApiVersion() {
+            return serverApiVersion;
+        }
+
+        @Override
+        public String getServerOrg() {
+            return serverOrg;
+        }
+
+        @Override
+        public String getServerBucket() {
+            return serverBucket;
+        }
+
+        @Override
+        public String getServerToken() {
+            return serverToken;
+        }
+
+        @Override
+        public boolean writeOtlp() {
+            return writeOtlp;
+        }
+
+        @Override
+        public String getOtlpEndpoint() {
+            return otlpEndpoint;
+        }
+
+        @Override
+        public OtlpTemporality otlpTemporality() {
+            return otlpTemporality;
+        }
+
+        @Override
+        public boolean serveMetrics() {
+            return serveMetrics;
+        }
+
+        @Override
+        public int metricsPort() {
+            return metricsPort;
+        }
+
+        @Override
+        public String getAdditionalServers() {
+            return additionalServers;
+        }
+
+        @Override
+        public boolean shareUploads() {
+            return shareUploads;
+        }
+
+        @Override
+        public int aggregatorPort() {
+            return aggregatorPort;
+        }
+
+        @Override
+        public int shutdownTimeoutSeconds() {
+            return shutdownTimeoutSeconds;
+        }
+    }
+}
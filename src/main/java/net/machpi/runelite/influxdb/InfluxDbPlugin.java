@@ -10,6 +10,7 @@ import net.runelite.api.coords.WorldPoint;
 import net.runelite.api.events.*;
 import net.runelite.api.widgets.ComponentID;
 import net.runelite.api.widgets.Widget;
+import net.runelite.client.RuneLite;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.events.ConfigChanged;
@@ -20,6 +21,7 @@ import net.runelite.client.task.Schedule;
 import net.runelite.client.util.ExecutorServiceExceptionLogger;
 
 import javax.inject.Inject;
+import java.io.File;
 import java.time.temporal.ChronoUnit;
 import java.util.EnumMap;
 import java.util.EnumSet;
@@ -36,6 +38,14 @@ import java.util.concurrent.TimeUnit;
 )
 @Slf4j
 public class InfluxDbPlugin extends Plugin {
+    private static final File FINGERPRINT_FILE = new File(new File(RuneLite.RUNELITE_DIR, "influxdb"), "fingerprints.bin");
+    private static final File PENDING_FILE = new File(new File(RuneLite.RUNELITE_DIR, "influxdb"), "pending.bin");
+    private static final long SHUTDOWN_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    /**
+     * Ticks in a row the low priority work may be deferred for being over budget, before it runs anyway.
+     */
+    private static final int MAX_DEFERRED_TICKS = 5;
+
     private ScheduledFuture<?> flushTask;
 
     @Provides
@@ -50,7 +60,11 @@ public class InfluxDbPlugin extends Plugin {
     private InfluxWriter writer;
 
     @Inject
-    private InfluxDbConfig config;
+    private InfluxDbConfigCache configCache;
+
+    private InfluxDbConfig config() {
+        return configCache.get();
+    }
 
     @Inject
     private Client client;
@@ -64,37 +78,66 @@ public class InfluxDbPlugin extends Plugin {
     @Inject
     private SkillingItemTracker skillingItemTracker;
 
+    @Inject
+    private XpCache xpCache;
+
 
 
     /**
      * Don't use a shared executor because we don't want to block any game threads.
      */
-    private final ScheduledExecutorService executor = new ExecutorServiceExceptionLogger(Executors.newSingleThreadScheduledExecutor());
-    private final EnumMap<Skill, Integer> previousStatXp = new EnumMap<>(Skill.class);
+    private ScheduledExecutorService executor;
+    /**
+     * Builds measurements from state captured on the client thread, kept separate from the flush executor so a slow
+     * server doesn't delay them.
+     */
+    private ScheduledExecutorService measurementExecutor;
     private GameState prevGameState;
-    private boolean varPlayerChanged;
+    private VarDispatcher varDispatcher;
+
+    private boolean achievementsDirty;
+    private final EnumMap<AchievementDiary, EnumSet<AchievementDiary.Tier>> dirtyDiaries = new EnumMap<>(AchievementDiary.class);
+    private final EnumSet<CombatAchievement> dirtyCombatAchievements = EnumSet.noneOf(CombatAchievement.class);
+
+    /**
+     * Set when any input of the self measurement changes so it is only rebuilt when needed.
+     */
+    private boolean selfDirty = true;
+    private int lastSkullIcon = -1;
+    private HeadIcon lastOverheadIcon;
+
+    private final HandlerTimings timings = new HandlerTimings();
+    private int deferredTicks;
 
     @Subscribe
     public void onStatChanged(StatChanged statChanged) {
+        long start = timings.start();
+        try {
+            handleStatChanged(statChanged);
+        } finally {
+            timings.record(HandlerTimings.Handler.STAT_CHANGED, start);
+        }
+    }
+
+    private void handleStatChanged(StatChanged statChanged) {
+        // the combat level only depends on real levels, so boosts and experience within a level don't change it
+        if (MeasurementCreator.isSelfSkill(statChanged.getSkill())
+                && xpCache.getRealLevel(statChanged.getSkill()) != statChanged.getLevel())
+            selfDirty = true;
         if (measurer.isInLastManStanding())
             return;
         if (statChanged.getXp() == 0 || client.getGameState() != GameState.LOGGED_IN)
             return;
-        final Integer previous = previousStatXp.put(statChanged.getSkill(), statChanged.getXp());
-        if (previous == null || previous == statChanged.getXp())
+        // changed skills are measured together on the next tick
+        final int previous = xpCache.update(statChanged.getSkill(), statChanged.getXp(), statChanged.getLevel());
+        if (previous <= 0 || previous == statChanged.getXp())
             return;
-        previousStatXp.put(statChanged.getSkill(), statChanged.getXp());
 
-        if (config.writeSkillingItems()) {
+        if (config().writeSkillingItems()) {
             skillingItemTracker.onXpGained(statChanged.getSkill(), statChanged.getXp() - previous);
         }
 
-        if (config.writeXp()) {
-            measurer.createXpMeasurement(statChanged.getSkill()).ifPresent(writer::submit);
-            measurer.createOverallXpMeasurement().ifPresent(writer::submit);
-        }
-
-        if (config.writeActivity()) {
+        if (config().writeActivity()) {
             final GameEvent gameEvent = GameEvent.fromSkill(statChanged.getSkill());
             if (gameEvent != null) {
                 activityState.triggerEvent(gameEvent);
@@ -106,15 +149,19 @@ public class InfluxDbPlugin extends Plugin {
     public void onGameStateChanged(GameStateChanged event) {
         GameState prev = prevGameState;
         prevGameState = event.getGameState();
+        measurer.invalidateLocation();
+        measurer.invalidateSeriesTags();
 
         switch (event.getGameState()) {
             case LOGIN_SCREEN:
                 checkForGameStateUpdate();
                 break;
             case LOGGING_IN:
-                previousStatXp.clear();
+                xpCache.clear();
+                measurer.resetKillCountRates();
                 break;
             case LOGGED_IN:
+                selfDirty = true;
                 if (prev == GameState.LOGGING_IN) {
                     checkForGameStateUpdate();
                 }
@@ -122,6 +169,7 @@ public class InfluxDbPlugin extends Plugin {
         }
 
         checkForAreaUpdate();
+        updateActivity();
     }
 
     private String lastMeasuredProfile;
@@ -132,20 +180,19 @@ public class InfluxDbPlugin extends Plugin {
             return;
         }
         lastMeasuredProfile = profile;
-        if (config.writeXp() && !measurer.isInLastManStanding()) {
-            for (Skill s : Skill.values()) {
-                measurer.createXpMeasurement(s).ifPresent(writer::submit);
-            }
-            measurer.createOverallXpMeasurement().ifPresent(writer::submit);
+        selfDirty = true;
+        measurer.invalidateSeriesTags();
+        if (config().writeXp() && !measurer.isInLastManStanding()) {
+            xpCache.load();
         }
-        if (config.writeKillCount()) {
+        if (config().writeKillCount()) {
             String prefix = MeasurementCreator.KILL_COUNT_CFG_GROUP + "." + profile + ".";
             for (String groupAndKey : configManager.getConfigurationKeys(prefix)) {
                 String boss = groupAndKey.substring(prefix.length());
                 measurer.createKillCountMeasurement(boss).ifPresent(writer::submit);
             }
         }
-        if (config.writeSelfMeta()) {
+        if (config().writeSelfMeta()) {
             measurer.createAchievementMeasurements(writer::submit);
         }
         checkForGameStateUpdate();
@@ -154,6 +201,15 @@ public class InfluxDbPlugin extends Plugin {
 
     @Subscribe
     public void onItemContainerChanged(ItemContainerChanged event) {
+        long start = timings.start();
+        try {
+            handleItemContainerChanged(event);
+        } finally {
+            timings.record(HandlerTimings.Handler.ITEM_CONTAINER_CHANGED, start);
+        }
+    }
+
+    private void handleItemContainerChanged(ItemContainerChanged event) {
         ItemContainer container = event.getItemContainer();
         if (container == null)
             return;
@@ -164,40 +220,99 @@ public class InfluxDbPlugin extends Plugin {
                 break;
             }
         }
-        if (id == InventoryID2.INVENTORY && config.writeSkillingItems()) {
+        if (id == InventoryID2.INVENTORY && config().writeSkillingItems()) {
             skillingItemTracker.onInventoryChanges(container);
         }
-        if (config.writeBankValue()) {
+        if (config().writeBankValue()) {
             if (id != InventoryID2.BANK && id != InventoryID2.SEED_VAULT && id != InventoryID2.COLLECTION_LOG)
                 return;
             if (writer.isBlocked(measurer.createItemSeries(id, MeasurementCreator.InvValueType.HA)))
                 return;
-            Item[] items = container.getItems();
-            measurer.createItemMeasurements(id, items).forEach(writer::submit);
+            // only copy the items here, and value and dedupe them on the worker
+            MeasurementCreator.ItemSnapshot items = measurer.captureItems(id, container.getItems());
+            measurementExecutor.execute(() -> measurer.createItemMeasurements(items).forEach(writer::submit));
         }
     }
 
     @Subscribe
     public void onGameTick(GameTick tick) {
+        long start = timings.start();
+        try {
+            handleGameTick(start);
+        } finally {
+            timings.record(HandlerTimings.Handler.GAME_TICK, start);
+            timings.resetTick();
+        }
+    }
+
+    private void handleGameTick(long start) {
         maybeMeasureInitialState();
+        if (config().writeXp()) {
+            xpCache.measureChanged(writer::submit);
+        } else {
+            xpCache.discardChanges();
+        }
+        updateActivity();
         skillingItemTracker.flushIfNeeded();
-        if (config.writeSelfLoc())
+
+        // Everything below is low priority, and stays dirty to be picked up on a later tick when over budget, unless
+        // it has been put off for so many ticks in a row that it would otherwise never run while the client is busy
+        if (deferredTicks < MAX_DEFERRED_TICKS
+                && timings.isOverBudget(start, TimeUnit.MILLISECONDS.toNanos(config().tickBudgetMillis()))) {
+            deferredTicks++;
+            return;
+        }
+        deferredTicks = 0;
+        if (config().writeSelfLoc())
             writer.submit(measurer.createSelfLocMeasurement());
-        if (config.writeSelfMeta()) {
-            writer.submit(measurer.createSelfMeasurement());
+        if (config().writeSelfMeta()) {
+            measureSelfIfDirty();
         }
-        if (varPlayerChanged) {
-            if (config.writeSelfMeta()) {
-                measurer.createAchievementMeasurements(writer::submit);
+        if (achievementsDirty) {
+            if (config().writeSelfMeta()) {
+                measureDirtyAchievements();
             }
-            varPlayerChanged = false;
+            dirtyDiaries.values().forEach(EnumSet::clear);
+            dirtyCombatAchievements.clear();
+            achievementsDirty = false;
         }
     }
 
+    private void measureDirtyAchievements() {
+        dirtyDiaries.forEach((diary, tiers) -> {
+            for (AchievementDiary.Tier tier : tiers) {
+                measurer.createDiaryMeasurement(diary, tier).ifPresent(writer::submit);
+            }
+        });
+        for (CombatAchievement tier : dirtyCombatAchievements) {
+            measurer.createCombatAchievementMeasurement(tier).ifPresent(writer::submit);
+        }
+    }
+
+    private void measureSelfIfDirty() {
+        Player local = client.getLocalPlayer();
+        if (local == null)
+            return;
+        // Skull and overhead prayer have no dedicated events, but are cheap to poll
+        if (local.getSkullIcon() != lastSkullIcon || local.getOverheadIcon() != lastOverheadIcon) {
+            lastSkullIcon = local.getSkullIcon();
+            lastOverheadIcon = local.getOverheadIcon();
+            selfDirty = true;
+        }
+        if (!selfDirty)
+            return;
+        selfDirty = false;
+        writer.submit(measurer.createSelfMeasurement());
+    }
+
     @Subscribe
     public void onConfigChanged(ConfigChanged changed) {
+        if (MeasurementCreator.SLAYER_CFG_GROUP.equals(changed.getGroup())) {
+            selfDirty = true;
+        }
         if (InfluxDbConfig.GROUP.equals(changed.getGroup())) {
-            failureBackoff = 0;
+            configCache.refresh();
+            selfDirty = true;
             if (InfluxDbConfig.WRITE_INTERVAL.equals(changed.getKey())) {
                 rescheduleFlush();
             }
@@ -208,7 +323,7 @@ public class InfluxDbPlugin extends Plugin {
     private void observeKillCountConfig(String group, String key) {
         // Piggyback on the chat commands plugin to record kill count to avoid
         // duplicating the complex logic to keep up to date on kill counts
-        if (!config.writeKillCount())
+        if (!config().writeKillCount())
             return;
         if (!group.equals(MeasurementCreator.KILL_COUNT_CFG_GROUP)
                 && !group.equals(MeasurementCreator.PERSONAL_BEST_CFG_GROUP))
@@ -216,27 +331,13 @@ public class InfluxDbPlugin extends Plugin {
         measurer.createKillCountMeasurement(key).ifPresent(writer::submit);
     }
 
-    private int failures = 0;
-    private int failureBackoff = 0;
-
     public void flush() {
-        if (failureBackoff > 0) {
-            failureBackoff--;
-            return;
-        }
-        try {
-            writer.flush();
-            failures = 0;
-        } catch (RuntimeException ex) {
-            failures++;
-            log.error("Failed to write to influxDB " + failures + " times", ex);
-            failureBackoff = Math.min(32, failures * failures);
-        }
+        writer.flush();
     }
 
     private synchronized void rescheduleFlush() {
         unscheduleFlush();
-        this.flushTask = executor.scheduleWithFixedDelay(this::flush, config.writeIntervalSeconds(), config.writeIntervalSeconds(), TimeUnit.SECONDS);
+        this.flushTask = executor.scheduleWithFixedDelay(this::flush, config().writeIntervalSeconds(), config().writeIntervalSeconds(), TimeUnit.SECONDS);
     }
 
     private synchronized void unscheduleFlush() {
@@ -248,18 +349,55 @@ public class InfluxDbPlugin extends Plugin {
 
     @Subscribe
     public void onLootReceived(LootReceived event) {
-        if (config.writeLoot()) {
-            measurer.createLootMeasurement(event).ifPresent(writer::submit);
+        if (config().writeLoot()) {
+            // only copy the drop here, and value it on the worker like containers
+            measurer.captureLoot(event, config().aggregateLoot()).ifPresent(loot ->
+                    measurementExecutor.execute(() -> writer.submit(measurer.createLootMeasurement(loot))));
         }
     }
 
     @Subscribe
     public void onVarbitChanged(VarbitChanged event) {
-        varPlayerChanged = true;
-        final GameEvent gameEvent = GameEvent.fromVarbit(client);
-        if (gameEvent != null) {
-            activityState.triggerEvent(gameEvent);
+        long start = timings.start();
+        try {
+            varDispatcher.dispatch(event);
+        } finally {
+            timings.record(HandlerTimings.Handler.VARBIT_CHANGED, start);
+        }
+    }
+
+    private VarDispatcher createVarDispatcher() {
+        VarDispatcher dispatcher = new VarDispatcher();
+        for (GameEvent gameEvent : GameEvent.varbitEvents()) {
+            dispatcher.onVarbit(gameEvent.getVarbit(), value -> {
+                if (value != 0) {
+                    activityState.triggerEvent(gameEvent);
+                }
+            });
+        }
+        for (int varbit : MeasurementCreator.SELF_VARBITS) {
+            dispatcher.onVarbit(varbit, value -> selfDirty = true);
+        }
+        for (int varp : MeasurementCreator.SELF_VARPS) {
+            dispatcher.onVarp(varp, value -> selfDirty = true);
+        }
+        for (AchievementDiary diary : AchievementDiary.values()) {
+            EnumSet<AchievementDiary.Tier> dirtyTiers = EnumSet.noneOf(AchievementDiary.Tier.class);
+            dirtyDiaries.put(diary, dirtyTiers);
+            for (AchievementDiary.Tier tier : AchievementDiary.Tier.values()) {
+                dispatcher.onVarbit(diary.getVarbit(tier), value -> {
+                    dirtyTiers.add(tier);
+                    achievementsDirty = true;
+                });
+            }
         }
+        for (CombatAchievement tier : CombatAchievement.values()) {
+            dispatcher.onVarbit(tier.getVarbit(), value -> {
+                dirtyCombatAchievements.add(tier);
+                achievementsDirty = true;
+            });
+        }
+        return dispatcher;
     }
 
     private void checkForAreaUpdate() {
@@ -268,13 +406,13 @@ public class InfluxDbPlugin extends Plugin {
         }
 
         Player localPlayer = client.getLocalPlayer();
-        final int regionId = WorldPoint.fromLocalInstance(client, localPlayer.getLocalLocation()).getRegionID();
-        if (regionId == 0) {
+        final WorldPoint location = measurer.getLocation();
+        if (location == null || location.getRegionID() == 0) {
             return;
         }
 
         final EnumSet<WorldType> worldType = client.getWorldType();
-        GameEvent gameEvent = GameEvent.fromRegion(regionId);
+        GameEvent gameEvent = measurer.getRegionEvent();
 
         Widget wildyWidget = client.getWidget(ComponentID.PVP_WILDERNESS_LEVEL);
         if (GameEvent.MG_NIGHTMARE_ZONE == gameEvent && localPlayer.getWorldLocation().getPlane() == 0) {
@@ -291,6 +429,12 @@ public class InfluxDbPlugin extends Plugin {
         }
 
         activityState.triggerEvent(gameEvent);
+
+        // Varbit events are only dispatched when their varbit changes, so re-assert them after moving regions
+        final GameEvent varbitEvent = GameEvent.fromVarbit(client);
+        if (varbitEvent != null) {
+            activityState.triggerEvent(varbitEvent);
+        }
     }
 
     private void checkForGameStateUpdate() {
@@ -302,23 +446,65 @@ public class InfluxDbPlugin extends Plugin {
     }
 
     /**
-     * send an activity heartbeat once every 50 seconds.
+     * Activity is submitted each tick when it changes, but ticks stop while logged out, so also poll for the
+     * keep-alive heartbeat and timeouts on a schedule.
      */
-    @Schedule(period = 50, unit = ChronoUnit.SECONDS)
+    @Schedule(period = 5, unit = ChronoUnit.SECONDS)
     public void updateActivity() {
         activityState.checkForTimeout();
         activityState.measure().ifPresent(writer::submit);
     }
 
+    @Schedule(period = 5, unit = ChronoUnit.MINUTES)
+    public void logTimings() {
+        if (log.isDebugEnabled()) {
+            log.debug("Client thread handler timings: {}", timings.summary());
+            log.debug("Sink health: {}", writer.sinkHealth());
+        }
+    }
+
     @Override
     protected void startUp() {
+        // config changes aren't observed while the plugin is disabled
+        configCache.refresh();
+        varDispatcher = createVarDispatcher();
+        executor = new ExecutorServiceExceptionLogger(Executors.newSingleThreadScheduledExecutor());
+        measurementExecutor = new ExecutorServiceExceptionLogger(Executors.newSingleThreadScheduledExecutor());
+        writer.loadFingerprints(FINGERPRINT_FILE);
+        writer.loadPending(PENDING_FILE);
         rescheduleFlush();
     }
 
+    /**
+     * Hands the final write to the flush executor and waits for it no longer than the configured deadline, so a slow
+     * or unreachable server can't hold up closing the client.  Points not written by then are kept for the next session.
+     */
     @Override
     protected void shutDown() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config().shutdownTimeoutSeconds());
         updateActivity(); // get the final activity before shutting down
-        flush();
         unscheduleFlush();
+        measurementExecutor.shutdown();
+        executor.execute(() -> {
+            try {
+                // item measurements still being built are part of the final write
+                measurementExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            writer.shutdown(PENDING_FILE, deadline);
+            writer.saveFingerprints(FINGERPRINT_FILE);
+        });
+        executor.shutdown();
+        try {
+            // a little past the deadline, for saving what wasn't written
+            if (!executor.awaitTermination(deadline - System.nanoTime() + SHUTDOWN_GRACE_NANOS, TimeUnit.NANOSECONDS)) {
+                log.warn("Final write didn't finish in time");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        measurementExecutor.shutdownNow();
     }
 }
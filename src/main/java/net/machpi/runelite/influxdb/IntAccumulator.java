@@ -0,0 +1,99 @@
+package net.machpi.runelite.influxdb;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map of int keys to summed int values that doesn't allocate once it has reached its working size.
+ * Entries are never removed individually, only cleared all at once.
+ */
+final class IntAccumulator {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private int[] values;
+    /**
+     * Table slots in insertion order, so iteration and clearing only touch used slots.
+     */
+    private int[] used;
+    private int size;
+
+    IntAccumulator(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new int[capacity / 2];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    void add(int key, int delta) {
+        final int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == used.length) {
+            grow();
+            add(key, delta);
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        used[size++] = slot;
+    }
+
+    int get(int key) {
+        final int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int keyAt(int index) {
+        return keys[used[index]];
+    }
+
+    int valueAt(int index) {
+        return values[used[index]];
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[used[i]] = EMPTY;
+            values[used[i]] = 0;
+        }
+        size = 0;
+    }
+
+    private void grow() {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        final int[] oldUsed = used;
+        final int oldSize = size;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldSize; i++) {
+            add(oldKeys[oldUsed[i]], oldValues[oldUsed[i]]);
+        }
+    }
+
+    private static int mix(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
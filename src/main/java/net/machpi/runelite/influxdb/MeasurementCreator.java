@@ -2,10 +2,11 @@ package net.machpi.runelite.influxdb;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
-import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import lombok.Value;
 import net.machpi.runelite.influxdb.activity.ActivityState;
 import net.machpi.runelite.influxdb.activity.GameEvent;
 import net.machpi.runelite.influxdb.write.Measurement;
@@ -18,7 +19,6 @@ import net.runelite.api.ItemComposition;
 import net.runelite.api.ItemID;
 import net.runelite.api.Player;
 import net.runelite.api.Skill;
-import net.runelite.api.VarPlayer;
 import net.runelite.api.WorldType;
 import net.runelite.api.coords.WorldPoint;
 import net.runelite.client.config.ConfigManager;
@@ -28,6 +28,7 @@ import net.runelite.client.game.ItemStack;
 import net.runelite.client.plugins.loottracker.LootReceived;
 import net.runelite.http.api.loottracker.LootRecordType;
 
+import javax.annotation.Nullable;
 import javax.inject.Singleton;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -35,6 +36,8 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
@@ -52,10 +55,19 @@ public class MeasurementCreator {
     public static final String SERIES_ACTIVITY = "rs_activity";
     public static final String SERIES_LOOT = "rs_loot";
     public static final String SERIES_SKILLING_ITEMS = "rs_skilling_items";
+    public static final String OVERALL_SKILL = "OVERALL";
+    public static final String LOOT_KEY_GE_VALUE = "geValue";
+    public static final String SKILLING_ITEMS_KEY_WEIGHTED_XP = "weightedXp";
     public static final String SELF_KEY_X = "locX";
     public static final String SELF_KEY_Y = "locY";
     public static final Set<String> SELF_POS_KEYS = ImmutableSet.of(SELF_KEY_X, SELF_KEY_Y);
 
+    /**
+     * Keys of the tags common to every series, which identify the account and world rather than what is measured.
+     */
+    public static final Set<String> COMMON_TAG_KEYS = ImmutableSet.of("account", "player", "user", "profile",
+            "worldType", WorldTags.TAG_VARIANT, WorldTags.TAG_LEAGUE);
+
     private final Client client;
     private final ItemManager itemManager;
     private final ConfigManager configManager;
@@ -67,139 +79,255 @@ public class MeasurementCreator {
         this.configManager = configManager;
     }
 
-    public boolean isInLastManStanding() {
+    private int locationTick = -1;
+    private WorldPoint location;
+    private GameEvent regionEvent;
+
+    /**
+     * Forces the cached location to be recomputed, for when the player can move without the tick advancing.
+     */
+    public void invalidateLocation() {
+        locationTick = -1;
+    }
+
+    private void updateLocation() {
+        int tick = client.getTickCount();
+        if (tick == locationTick) {
+            return;
+        }
         Player localPlayer = client.getLocalPlayer();
         if (localPlayer == null) {
-            return false;
+            location = null;
+            regionEvent = null;
+            return;
         }
-        final int regionId = WorldPoint.fromLocalInstance(client, localPlayer.getLocalLocation()).getRegionID();
-        return GameEvent.MG_LAST_MAN_STANDING.equals(GameEvent.fromRegion(regionId));
+        locationTick = tick;
+        location = WorldPoint.fromLocalInstance(client, localPlayer.getLocalLocation());
+        regionEvent = GameEvent.fromRegion(location.getRegionID());
     }
 
-    private Series.SeriesBuilder createSeries() {
-        Series.SeriesBuilder builder = Series.builder();
-        builder.tag("account", Long.toString(client.getAccountHash()));
+    /**
+     * Gets the player's (instance-resolved) location, computed at most once per tick.
+     */
+    public WorldPoint getLocation() {
+        updateLocation();
+        return location;
+    }
+
+    /**
+     * Gets the game event associated with the player's current region, computed at most once per tick.
+     */
+    public GameEvent getRegionEvent() {
+        updateLocation();
+        return regionEvent;
+    }
+
+    public boolean isInLastManStanding() {
+        return getRegionEvent() == GameEvent.MG_LAST_MAN_STANDING;
+    }
+
+    private volatile Map<String, String> seriesTags;
+
+    /**
+     * Forces the tags common to every series to be recomputed, for when the account, world, or profile may have
+     * changed.
+     */
+    public void invalidateSeriesTags() {
+        seriesTags = null;
+    }
+
+    /**
+     * Gets the tags common to every series.  These only change on login or world hop, so they are cached until
+     * invalidated, and can be captured on the client thread for measurements built elsewhere.
+     */
+    public Map<String, String> captureSeriesTags() {
+        Map<String, String> tags = seriesTags;
+        if (tags != null) {
+            return tags;
+        }
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        builder.put("account", Long.toString(client.getAccountHash()));
         Player player = client.getLocalPlayer();
         String playerName = player != null ? player.getName() : null;
         if (!Strings.isNullOrEmpty(playerName)) {
-            builder.tag("player", playerName);
+            builder.put("player", playerName);
         }
         String userName = client.getUsername();
         if (!Strings.isNullOrEmpty(userName)) {
-            builder.tag("user", userName);
+            builder.put("user", userName);
+        }
+        builder.putAll(WorldTags.tagsForWorld(client.getWorldType()));
+        String profile = configManager.getRSProfileKey();
+        if (profile != null) {
+            builder.put("profile", profile);
+        }
+        builder.put("worldType", RuneScapeProfileType.getCurrent(client).name());
+        tags = builder.build();
+        // the player's name isn't known until shortly after login, so keep recomputing until it is
+        if (!Strings.isNullOrEmpty(playerName) && profile != null) {
+            seriesTags = tags;
         }
-        builder.tags(WorldTags.tagsForWorld(client.getWorldType()));
-        builder.tag("profile", configManager.getRSProfileKey());
-        builder.tag("worldType", RuneScapeProfileType.getCurrent(client).name());
-        return builder;
+        return tags;
+    }
+
+    private Series.SeriesBuilder createSeries() {
+        return createSeries(captureSeriesTags());
+    }
+
+    private static Series.SeriesBuilder createSeries(Map<String, String> seriesTags) {
+        return Series.builder().tags(seriesTags);
     }
 
     public Series createXpSeries(String skill) {
         return createSeries().measurement(SERIES_SKILL).tag("skill", skill).build();
     }
 
-    public Optional<Measurement> createOverallXpMeasurement() {
-        long xp = client.getOverallExperience();
-        if (xp == 0) {
-            return Optional.empty();
-        }
-        int virtualLevel = Arrays.stream(Skill.values())
-                .mapToInt(x -> Experience.getLevelForXp(client.getSkillExperience(x)))
-                .sum();
-        int realLevel = client.getTotalLevel();
-        return Optional.of(Measurement.builder()
-                .series(createXpSeries("OVERALL"))
+    public Measurement createXpMeasurement(String skill, long xp, int realLevel, int virtualLevel, RateWindow rates) {
+        Measurement.MeasurementBuilder builder = Measurement.builder()
+                .series(createXpSeries(skill))
                 .numericValue("xp", xp)
                 .numericValue("realLevel", realLevel)
-                .numericValue("virtualLevel", virtualLevel)
-                .build());
+                .numericValue("virtualLevel", virtualLevel);
+        rates.addRates(builder, System.currentTimeMillis());
+        return builder.build();
     }
 
-    public Optional<Measurement> createXpMeasurement(Skill skill) {
-        long xp = client.getSkillExperience(skill);
-        if (xp == 0) {
-            return Optional.empty();
-        }
-        int virtualLevel = Experience.getLevelForXp((int) xp);
-        int realLevel = client.getRealSkillLevel(skill);
-        return Optional.of(Measurement.builder()
-                .series(createXpSeries(skill.name()))
-                .numericValue("xp", xp)
-                .numericValue("realLevel", realLevel)
-                .numericValue("virtualLevel", virtualLevel)
-                .build());
+    public Series createItemSeries(InventoryID2 inventory, InvValueType type) {
+        return createItemSeries(captureSeriesTags(), inventory, type);
     }
 
-    public Series createItemSeries(InventoryID2 inventory, InvValueType type) {
-        return createSeries().measurement(SERIES_INVENTORY)
+    private static Series createItemSeries(Map<String, String> seriesTags, InventoryID2 inventory, InvValueType type) {
+        return createSeries(seriesTags).measurement(SERIES_INVENTORY)
                 .tag("inventory", inventory.name())
                 .tag("type", type.name())
                 .build();
     }
 
     private static String itemToKey(ItemComposition composition) {
-        return composition.getName() + "@" + composition.getId();
+        return itemToKey(composition.getName(), composition.getId());
+    }
+
+    private static String itemToKey(String name, int id) {
+        return name + "@" + id;
     }
 
     private static void addToMap(Map<String, Long> map, String key, long value) {
         map.compute(key, (_key, oldValue) -> (oldValue != null ? oldValue : 0) + value);
     }
 
-    public Stream<Measurement> createItemMeasurements(InventoryID2 inventoryID, Item[] items) {
-        Map<String, Long> gePrice = new HashMap<>(items.length / 2);
-        Map<String, Long> haPrice = new HashMap<>(items.length / 2);
-        Map<String, Long> count = new HashMap<>(items.length / 2);
+    /**
+     * The valid items of a container, as read on the client thread: raw item ids and quantities only.  Everything
+     * else needed to build the measurements is done by {@link #createItemMeasurements}, which may run on any thread.
+     */
+    @Value
+    public static class ItemSnapshot {
+        Map<String, String> seriesTags;
+        InventoryID2 inventory;
+        int size;
+        int[] ids;
+        int[] quantities;
+    }
 
-        long totalGe = 0, totalAlch = 0;
-        long otherGe = 0, otherAlch = 0;
+    /**
+     * Canonical id, name and prices of an item.  These are read from item compositions, which are only safe to read
+     * on the client thread, so they're cached for {@link #createItemMeasurements} to value items on another thread.
+     */
+    @Value
+    private static class ItemInfo {
+        int canonicalId;
+        String name;
+        long gePrice;
+        long alchPrice;
+        long resolvedAt;
+    }
+
+    /**
+     * How long cached item prices are used before being read again, so price updates are picked up.
+     */
+    private static final long ITEM_INFO_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Item info by raw item id, written on the client thread only.
+     */
+    private final Map<Integer, ItemInfo> itemInfo = new ConcurrentHashMap<>();
+
+    public ItemSnapshot captureItems(InventoryID2 inventoryID, Item[] items) {
+        long now = System.currentTimeMillis();
+        int[] ids = new int[items.length];
+        int[] quantities = new int[items.length];
+        int size = 0;
         for (Item item : items) {
-            long ge, alch;
             if (item.getId() < 0 || item.getQuantity() <= 0 || item.getId() == ItemID.BANK_FILLER)
                 continue;
-            int canonId = itemManager.canonicalize(item.getId());
-            ItemComposition data = itemManager.getItemComposition(canonId);
-            switch (canonId) {
-                case ItemID.COINS_995:
-                    ge = item.getQuantity();
-                    alch = item.getQuantity();
-                    break;
-                case ItemID.PLATINUM_TOKEN:
-                    ge = item.getQuantity() * 1000L;
-                    alch = item.getQuantity() * 1000L;
-                    break;
-                default:
-                    final long storePrice = data.getPrice();
-                    final long alchPrice = (long) (storePrice * Constants.HIGH_ALCHEMY_MULTIPLIER);
-                    alch = alchPrice * item.getQuantity();
-                    ge = (long) itemManager.getItemPrice(canonId) * item.getQuantity();
-                    break;
-            }
+            ids[size] = item.getId();
+            quantities[size] = item.getQuantity();
+            size++;
+            // only items not seen recently are read here, so a bank that was already open costs a map lookup per item
+            resolveIfStale(item.getId(), now);
+        }
+        return new ItemSnapshot(captureSeriesTags(), inventoryID, size, ids, quantities);
+    }
+
+    private void resolveIfStale(int id, long now) {
+        ItemInfo info = itemInfo.get(id);
+        if (info == null || now - info.getResolvedAt() >= ITEM_INFO_TTL_MILLIS) {
+            itemInfo.put(id, resolveItem(id, now));
+        }
+    }
+
+    private ItemInfo resolveItem(int id, long now) {
+        int canonId = itemManager.canonicalize(id);
+        ItemComposition data = itemManager.getItemComposition(canonId);
+        switch (canonId) {
+            case ItemID.COINS_995:
+                return new ItemInfo(canonId, data.getName(), 1, 1, now);
+            case ItemID.PLATINUM_TOKEN:
+                return new ItemInfo(canonId, data.getName(), 1000, 1000, now);
+            default:
+                return new ItemInfo(canonId, data.getName(), itemManager.getItemPrice(canonId),
+                        (long) (data.getPrice() * Constants.HIGH_ALCHEMY_MULTIPLIER), now);
+        }
+    }
+
+    public Stream<Measurement> createItemMeasurements(ItemSnapshot items) {
+        Map<String, Long> gePrice = new HashMap<>(items.getSize() / 2);
+        Map<String, Long> haPrice = new HashMap<>(items.getSize() / 2);
+        Map<String, Long> count = new HashMap<>(items.getSize() / 2);
+
+        long totalGe = 0, totalAlch = 0;
+        long otherGe = 0, otherAlch = 0;
+        for (int i = 0; i < items.getSize(); i++) {
+            ItemInfo info = itemInfo.get(items.getIds()[i]);
+            long quantity = items.getQuantities()[i];
+            long ge = info.getGePrice() * quantity;
+            long alch = info.getAlchPrice() * quantity;
             totalGe += ge;
             totalAlch += alch;
             boolean highValue = ge > THRESHOLD || alch > THRESHOLD;
             if (highValue) {
-                String key = itemToKey(data);
+                String key = itemToKey(info.getName(), info.getCanonicalId());
                 addToMap(gePrice, key, ge);
                 addToMap(haPrice, key, alch);
-                addToMap(count, key, item.getQuantity());
+                addToMap(count, key, quantity);
             } else {
                 otherGe += ge;
                 otherAlch += alch;
             }
         }
 
-
-        return Stream.of(Measurement.builder().series(createItemSeries(inventoryID, InvValueType.GE))
+        Map<String, String> tags = items.getSeriesTags();
+        InventoryID2 inventoryID = items.getInventory();
+        return Stream.of(Measurement.builder().series(createItemSeries(tags, inventoryID, InvValueType.GE))
                         .numericValues(gePrice)
                         .numericValue("total", totalGe)
                         .numericValue("other", otherGe)
                         .build(),
-                Measurement.builder().series(createItemSeries(inventoryID, InvValueType.HA))
+                Measurement.builder().series(createItemSeries(tags, inventoryID, InvValueType.HA))
                         .numericValues(haPrice)
                         .numericValue("total", totalAlch)
                         .numericValue("other", otherAlch)
                         .build(),
-                Measurement.builder().series(createItemSeries(inventoryID, InvValueType.COUNT))
+                Measurement.builder().series(createItemSeries(tags, inventoryID, InvValueType.COUNT))
                         .numericValues(count)
                         .build());
     }
@@ -209,8 +337,7 @@ public class MeasurementCreator {
     }
 
     public Measurement createSelfLocMeasurement() {
-        Player local = client.getLocalPlayer();
-        WorldPoint location = WorldPoint.fromLocalInstance(client, local.getLocalLocation());
+        WorldPoint location = getLocation();
         return Measurement.builder()
                 .series(createSelfLocSeries())
                 .numericValue(SELF_KEY_X, location.getX())
@@ -225,10 +352,46 @@ public class MeasurementCreator {
     }
 
     private static final int VARBIT_LEAGUE_TASKS = 10046;
+    private static final int VARP_QUEST_POINTS = 101;
     private static final int VARP_LEAGUE_POINTS = 2614;
     private static final int VARP_COLLECTION_LOG_ACHIEVED = 2943;
     private static final int VARP_COLLECTION_LOG_TOTAL = 2944;
 
+    static final String SLAYER_CFG_GROUP = "slayer";
+
+    private static final Set<Skill> SELF_SKILLS = Sets.immutableEnumSet(Skill.ATTACK, Skill.STRENGTH,
+            Skill.DEFENCE, Skill.HITPOINTS, Skill.MAGIC, Skill.RANGED, Skill.PRAYER);
+    /**
+     * Varps the self measurement depends on.
+     */
+    public static final Set<Integer> SELF_VARPS = ImmutableSet.of(VARP_QUEST_POINTS, VARP_LEAGUE_POINTS,
+            VARP_COLLECTION_LOG_ACHIEVED);
+    /**
+     * Varbits the self measurement depends on.
+     */
+    public static final Set<Integer> SELF_VARBITS;
+
+    static {
+        ImmutableSet.Builder<Integer> varbits = ImmutableSet.builder();
+        varbits.add(VARBIT_LEAGUE_TASKS);
+        for (AchievementDiary diary : AchievementDiary.values()) {
+            for (AchievementDiary.Tier tier : AchievementDiary.Tier.values()) {
+                varbits.add(diary.getVarbit(tier));
+            }
+        }
+        for (CombatAchievement tier : CombatAchievement.values()) {
+            varbits.add(tier.getVarbit());
+        }
+        SELF_VARBITS = varbits.build();
+    }
+
+    /**
+     * Does the self measurement depend on the given skill's level?
+     */
+    public static boolean isSelfSkill(Skill skill) {
+        return SELF_SKILLS.contains(skill);
+    }
+
     public Measurement createSelfMeasurement() {
         Player local = client.getLocalPlayer();
         Measurement.MeasurementBuilder builder = Measurement.builder()
@@ -242,7 +405,7 @@ public class MeasurementCreator {
                         client.getRealSkillLevel(Skill.RANGED),
                         client.getRealSkillLevel(Skill.PRAYER)
                 ))
-                .numericValue("questPoints", client.getVarpValue(VarPlayer.QUEST_POINTS))
+                .numericValue("questPoints", client.getVarpValue(VARP_QUEST_POINTS))
                 .numericValue("skulled", local.getSkullIcon() != -1 ? 1 : 0)
                 .stringValue("name", MoreObjects.firstNonNull(local.getName(), "none"))
                 .stringValue("overhead", local.getOverheadIcon() != null ? local.getOverheadIcon().name() : "NONE");
@@ -252,20 +415,20 @@ public class MeasurementCreator {
             builder.numericValue("leagueTasksComplete", tasksComplete)
                     .numericValue("leaguePoints", leaguePoints);
         }
-        loadProfileConfig("slayer", "initialAmount", Integer::parseInt)
+        loadProfileConfig(SLAYER_CFG_GROUP, "initialAmount", Integer::parseInt)
                 .ifPresent(amount -> builder.numericValue("slayerTaskAmount", amount));
-        loadProfileConfig("slayer", "amount", Integer::parseInt)
+        loadProfileConfig(SLAYER_CFG_GROUP, "amount", Integer::parseInt)
                 .ifPresent(amount -> builder.numericValue("slayerTaskRemaining", amount));
-        loadProfileConfig("slayer", "taskName", MeasurementCreator::toTitleCase)
+        loadProfileConfig(SLAYER_CFG_GROUP, "taskName", MeasurementCreator::toTitleCase)
                 .ifPresent(taskName -> {
-                    String taskLoc = loadProfileConfig("slayer", "taskLocation", MeasurementCreator::toTitleCase)
+                    String taskLoc = loadProfileConfig(SLAYER_CFG_GROUP, "taskLocation", MeasurementCreator::toTitleCase)
                             .orElse("Any Location");
                     builder.stringValue("slayerTaskName", taskName)
                             .stringValue("slayerTaskLoc", taskLoc);
                 });
-        loadProfileConfig("slayer", "points", Integer::parseInt)
+        loadProfileConfig(SLAYER_CFG_GROUP, "points", Integer::parseInt)
                 .ifPresent(amount -> builder.numericValue("slayerPoints", amount));
-        loadProfileConfig("slayer", "streak", Integer::parseInt)
+        loadProfileConfig(SLAYER_CFG_GROUP, "streak", Integer::parseInt)
                 .ifPresent(streak -> builder.numericValue("slayerTaskStreak", streak));
         int collectionLogAchieved = client.getVarpValue(VARP_COLLECTION_LOG_ACHIEVED);
 
@@ -309,20 +472,22 @@ public class MeasurementCreator {
         return Optional.of(builder.build());
     }
 
+    public Optional<Measurement> createDiaryMeasurement(AchievementDiary diary, AchievementDiary.Tier tier) {
+        return createAchievementMeasurementInternal(diary.name(), tier.name(), diary.get(client, tier), -1);
+    }
+
+    public Optional<Measurement> createCombatAchievementMeasurement(CombatAchievement tier) {
+        return createAchievementMeasurementInternal("COMBAT", tier.name(), tier.getCompleted(client), tier.getTotal(client));
+    }
+
     public void createAchievementMeasurements(Consumer<Measurement> target) {
         for (AchievementDiary diary : AchievementDiary.values()) {
-            createAchievementMeasurementInternal(diary.name(), "EASY", diary.getEasy(client), -1)
-                    .ifPresent(target);
-            createAchievementMeasurementInternal(diary.name(), "MEDIUM", diary.getMedium(client), -1)
-                    .ifPresent(target);
-            createAchievementMeasurementInternal(diary.name(), "HARD", diary.getHard(client), -1)
-                    .ifPresent(target);
-            createAchievementMeasurementInternal(diary.name(), "ELITE", diary.getElite(client), -1)
-                    .ifPresent(target);
+            for (AchievementDiary.Tier tier : AchievementDiary.Tier.values()) {
+                createDiaryMeasurement(diary, tier).ifPresent(target);
+            }
         }
         for (CombatAchievement tier : CombatAchievement.values()) {
-            createAchievementMeasurementInternal("COMBAT", tier.name(), tier.getCompleted(client), tier.getTotal(client))
-                    .ifPresent(target);
+            createCombatAchievementMeasurement(tier).ifPresent(target);
         }
     }
 
@@ -361,6 +526,15 @@ public class MeasurementCreator {
     static final String KILL_COUNT_CFG_GROUP = "killcount";
     static final String PERSONAL_BEST_CFG_GROUP = "personalbest";
 
+    private final Map<String, RateWindow> killCountRates = new HashMap<>();
+
+    /**
+     * Resets kill rates, for when a new session starts.
+     */
+    public void resetKillCountRates() {
+        killCountRates.values().forEach(RateWindow::reset);
+    }
+
     public Optional<Measurement> createKillCountMeasurement(String bossMixed) {
         // Piggyback off of chat commands plugin
         String boss = bossMixed.toLowerCase();
@@ -371,6 +545,10 @@ public class MeasurementCreator {
         Measurement.MeasurementBuilder measurement = Measurement.builder()
                 .series(createKillCountSeries(boss))
                 .numericValue("kc", killCount);
+        long now = System.currentTimeMillis();
+        RateWindow rates = killCountRates.computeIfAbsent(boss, key -> new RateWindow("kc"));
+        rates.record(now, killCount);
+        rates.addRates(measurement, now);
         if (personalBest != null) {
             measurement.numericValue("pb", personalBest.intValue());
             measurement.numericValue("pb_float", personalBest.floatValue());
@@ -417,31 +595,65 @@ public class MeasurementCreator {
                 .build();
     }
 
-    public Optional<Measurement> createLootMeasurement(LootReceived event) {
-        Player local = client.getLocalPlayer();
-        WorldPoint location = WorldPoint.fromLocalInstance(client, local.getLocalLocation());
-        Measurement.MeasurementBuilder measurement = Measurement.builder().series(createLootSeries(event.getType(), event.getName(), event.getCombatLevel()))
-                .numericValue(SELF_KEY_X, location.getX())
-                .numericValue(SELF_KEY_Y, location.getY())
-                .numericValue("plane", location.getPlane())
-                .numericValue("killcount", 1);
+    /**
+     * A loot drop as read on the client thread: its series, where it was received, and the raw item ids and
+     * quantities, valued by {@link #createLootMeasurement(LootSnapshot)} on any thread.
+     */
+    @Value
+    public static class LootSnapshot {
+        Series series;
+        @Nullable
+        WorldPoint location;
+        int[] ids;
+        int[] quantities;
+    }
 
-        Multiset<String> counts = HashMultiset.create(event.getItems().size());
+    /**
+     * @param aggregated if the measurement will be summed with others, in which case the location is omitted
+     * @return the drop, or empty if it has no items
+     */
+    public Optional<LootSnapshot> captureLoot(LootReceived event, boolean aggregated) {
+        long now = System.currentTimeMillis();
+        int[] ids = new int[event.getItems().size()];
+        int[] quantities = new int[ids.length];
+        int size = 0;
         for (ItemStack stack : event.getItems()) {
             if (stack.getQuantity() <= 0) {
                 continue;
             }
-            int canonId = itemManager.canonicalize(stack.getId());
-            ItemComposition data = itemManager.getItemComposition(canonId);
-            counts.add(itemToKey(data), stack.getQuantity());
+            ids[size] = stack.getId();
+            quantities[size] = stack.getQuantity();
+            size++;
+            resolveIfStale(stack.getId(), now);
         }
-        if (counts.isEmpty()) {
+        if (size == 0) {
             return Optional.empty();
         }
-        for (Multiset.Entry<String> count : counts.entrySet()) {
-            measurement.numericValue(count.getElement(), count.getCount());
+        return Optional.of(new LootSnapshot(createLootSeries(event.getType(), event.getName(), event.getCombatLevel()),
+                aggregated ? null : getLocation(), Arrays.copyOf(ids, size), Arrays.copyOf(quantities, size)));
+    }
+
+    public Measurement createLootMeasurement(LootSnapshot loot) {
+        Measurement.MeasurementBuilder measurement = Measurement.builder().series(loot.getSeries())
+                .numericValue("killcount", 1);
+        WorldPoint location = loot.getLocation();
+        if (location != null) {
+            measurement.numericValue(SELF_KEY_X, location.getX())
+                    .numericValue(SELF_KEY_Y, location.getY())
+                    .numericValue("plane", location.getPlane());
+        }
+
+        Map<String, Long> counts = new HashMap<>(loot.getIds().length);
+        long geValue = 0;
+        for (int i = 0; i < loot.getIds().length; i++) {
+            ItemInfo info = itemInfo.get(loot.getIds()[i]);
+            long quantity = loot.getQuantities()[i];
+            addToMap(counts, itemToKey(info.getName(), info.getCanonicalId()), quantity);
+            geValue += info.getGePrice() * quantity;
         }
-        return Optional.of(measurement.build());
+        measurement.numericValues(counts);
+        measurement.numericValue(LOOT_KEY_GE_VALUE, geValue);
+        return measurement.build();
     }
 
     public Series createSkillingItemSeries(Skill skill, ItemComposition item) {
@@ -458,7 +670,7 @@ public class MeasurementCreator {
                                                      long count) {
         return Measurement.builder().series(createSkillingItemSeries(skill, item))
                 .numericValue("xp", xp)
-                .numericValue("weightedXp", weightedXp)
+                .numericValue(SKILLING_ITEMS_KEY_WEIGHTED_XP, weightedXp)
                 .numericValue("itemCount", count)
                 .numericValue("actionCount", 1)
                 .build();
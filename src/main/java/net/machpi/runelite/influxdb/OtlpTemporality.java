@@ -0,0 +1,12 @@
+package net.machpi.runelite.influxdb;
+
+public enum OtlpTemporality {
+    /**
+     * Each exported sum covers only the interval since the previous export.
+     */
+    DELTA,
+    /**
+     * Each exported sum is the running total since the plugin started.
+     */
+    CUMULATIVE
+}
@@ -0,0 +1,133 @@
+package net.machpi.runelite.influxdb;
+
+import net.machpi.runelite.influxdb.write.Measurement;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling per-hour rates of a cumulative counter (such as xp or kill count) over the last five minutes, the last
+ * hour, and the session.  Samples are kept in a fixed ring of time buckets that covers the longest window, each
+ * holding the counter's value at the end of that bucket.
+ */
+public final class RateWindow {
+    private static final long BUCKET_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long SHORT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int BUCKETS = (int) (HOUR_MILLIS / BUCKET_MILLIS) + 2;
+    /**
+     * Rates over less time than this are too noisy to be worth recording.
+     */
+    private static final long MIN_ELAPSED_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final String shortField;
+    private final String hourField;
+    private final String sessionField;
+
+    private final long[] values = new long[BUCKETS];
+    private long firstBucket = -1;
+    private long lastBucket = -1;
+    private long sessionStartTime;
+    private long sessionStartValue;
+
+    public RateWindow(String prefix) {
+        this.shortField = prefix + "PerHour5m";
+        this.hourField = prefix + "PerHour1h";
+        this.sessionField = prefix + "PerHourSession";
+    }
+
+    public void reset() {
+        firstBucket = -1;
+        lastBucket = -1;
+    }
+
+    public void record(long time, long value) {
+        if (firstBucket < 0) {
+            sessionStartTime = time;
+            sessionStartValue = value;
+        }
+        add(time, value);
+    }
+
+    /**
+     * Fills in the history from before the session, such as the values kept in the local store by an earlier one, so
+     * the windowed rates are right from the start of the session.  Samples must be in time order, and are ignored
+     * unless they lead up to the value the session started at, since it changed somewhere else in between otherwise.
+     */
+    public void seed(long[] times, long[] samples) {
+        int before = 0;
+        while (before < times.length && times[before] < sessionStartTime) {
+            before++;
+        }
+        if (firstBucket < 0 || before == 0 || samples[before - 1] != sessionStartValue
+                || lastBucket - firstBucket >= BUCKETS - 1) {
+            return;
+        }
+        final long sessionFirstBucket = firstBucket;
+        final long[] session = new long[(int) (lastBucket - firstBucket + 1)];
+        for (int i = 0; i < session.length; i++) {
+            session[i] = values[slot(sessionFirstBucket + i)];
+        }
+        firstBucket = -1;
+        for (int i = 0; i < before; i++) {
+            add(times[i], samples[i]);
+        }
+        for (int i = 0; i < session.length; i++) {
+            add((sessionFirstBucket + i) * BUCKET_MILLIS, session[i]);
+        }
+    }
+
+    private void add(long time, long value) {
+        final long bucket = time / BUCKET_MILLIS;
+        if (firstBucket < 0) {
+            firstBucket = bucket;
+            lastBucket = bucket;
+        } else if (bucket > lastBucket) {
+            // carry the last value through idle buckets so every bucket in range holds a value
+            final long previous = values[slot(lastBucket)];
+            for (long b = Math.max(lastBucket + 1, bucket - BUCKETS + 1); b < bucket; b++) {
+                values[slot(b)] = previous;
+            }
+            lastBucket = bucket;
+        }
+        // if the clock went backwards, fold the sample into the latest bucket
+        values[slot(lastBucket)] = value;
+    }
+
+    /**
+     * Adds every rate that has enough history to the measurement.
+     */
+    public void addRates(Measurement.MeasurementBuilder builder, long now) {
+        if (firstBucket < 0) {
+            return;
+        }
+        addRate(builder, shortField, ratePerHour(SHORT_WINDOW_MILLIS, now));
+        addRate(builder, hourField, ratePerHour(HOUR_MILLIS, now));
+        addRate(builder, sessionField, ratePerHour(sessionStartTime, sessionStartValue, now));
+    }
+
+    private static void addRate(Measurement.MeasurementBuilder builder, String field, double rate) {
+        if (!Double.isNaN(rate)) {
+            builder.numericValue(field, rate);
+        }
+    }
+
+    private double ratePerHour(long windowMillis, long now) {
+        final long baselineBucket = Math.min((now - windowMillis) / BUCKET_MILLIS, lastBucket - 1);
+        if (baselineBucket < firstBucket) {
+            return ratePerHour(sessionStartTime, sessionStartValue, now);
+        }
+        return ratePerHour((baselineBucket + 1) * BUCKET_MILLIS, values[slot(baselineBucket)], now);
+    }
+
+    private double ratePerHour(long baselineTime, long baselineValue, long now) {
+        final long elapsed = now - baselineTime;
+        if (elapsed < MIN_ELAPSED_MILLIS) {
+            return Double.NaN;
+        }
+        return (values[slot(lastBucket)] - baselineValue) * (double) HOUR_MILLIS / elapsed;
+    }
+
+    private static int slot(long bucket) {
+        return (int) (bucket % BUCKETS);
+    }
+}
@@ -0,0 +1,12 @@
+package net.machpi.runelite.influxdb;
+
+public enum ServerApiVersion {
+    /**
+     * {@code /write} with a database, retention policy and optional username and password.
+     */
+    V1,
+    /**
+     * {@code /api/v2/write} with an organization, bucket and token.
+     */
+    V2
+}
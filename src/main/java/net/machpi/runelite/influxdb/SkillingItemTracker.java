@@ -1,9 +1,5 @@
 package net.machpi.runelite.influxdb;
 
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Multiset;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
@@ -16,33 +12,75 @@ import net.runelite.api.ItemID;
 import net.runelite.api.Skill;
 import net.runelite.client.game.ItemManager;
 
-import java.util.Set;
+import java.util.Arrays;
 
 @Slf4j
 @Singleton
 public final class SkillingItemTracker {
-    private static final Set<Integer> IGNORED_ITEMS = ImmutableSet.of(ItemID.COINS_995,
+    private static final int[] IGNORED_ITEMS = sorted(ItemID.COINS_995,
             // ignore waterskins since they can be used on the same tick when doing activities in the desert
             ItemID.WATERSKIN0, ItemID.WATERSKIN1, ItemID.WATERSKIN2, ItemID.WATERSKIN3, ItemID.WATERSKIN4,
             // ignore cooking utensils
             ItemID.PIE_DISH, ItemID.CAKE_TIN, ItemID.POT, ItemID.BOWL, ItemID.SERVERY_DISH,
             // ignore not-interesting items received while doing birdhouse runs
             ItemID.CLOCKWORK, ItemID.FEATHER);
-    private static final Set<Skill> VALID_SKILLS = ImmutableSet.of(Skill.RUNECRAFT, Skill.CRAFTING, Skill.MINING,
-            Skill.SMITHING, Skill.FIREMAKING, Skill.COOKING, Skill.WOODCUTTING, Skill.HERBLORE, Skill.HUNTER,
-            Skill.FLETCHING, Skill.FARMING, Skill.FISHING);
+    private static final Skill[] SKILLS = Skill.values();
+    private static final boolean[] VALID_SKILLS = new boolean[SKILLS.length];
+    private static final int INVENTORY_SIZE = 28;
+    /**
+     * How many ticks after an xp drop the items it produced may still arrive.
+     */
+    private static final int ATTRIBUTION_TICKS = 2;
+    private static final int MAX_PENDING_XP = (ATTRIBUTION_TICKS + 1) * SKILLS.length;
+    private static final int MAX_LEARNED_ITEMS = 4096;
+    private static final int AMBIGUOUS = -2;
+
+    static {
+        for (Skill skill : new Skill[]{Skill.RUNECRAFT, Skill.CRAFTING, Skill.MINING, Skill.SMITHING,
+                Skill.FIREMAKING, Skill.COOKING, Skill.WOODCUTTING, Skill.HERBLORE, Skill.HUNTER, Skill.FLETCHING,
+                Skill.FARMING, Skill.FISHING}) {
+            VALID_SKILLS[skill.ordinal()] = true;
+        }
+    }
+
+    private static int[] sorted(int... ids) {
+        Arrays.sort(ids);
+        return ids;
+    }
 
     private final Client client;
     private final ItemManager itemManager;
     private final MeasurementCreator measurementCreator;
     private final InfluxWriter writer;
 
-    private Multiset<Integer> prevInventoryItems = HashMultiset.create();
-    private Multiset<Integer> currInventoryItems = HashMultiset.create();
+    /**
+     * Inventory as of the last change, slot by slot: the raw item and quantity to detect changed slots, and the
+     * canonical item (or -1 if empty or ignored) that the slot contributes.
+     */
+    private int[] slotRawIds = emptySlots(INVENTORY_SIZE);
+    private int[] slotRawQuantities = new int[INVENTORY_SIZE];
+    private int[] slotIds = emptySlots(INVENTORY_SIZE);
+    private int[] slotQuantities = new int[INVENTORY_SIZE];
+    private final IntAccumulator inventoryDelta = new IntAccumulator(INVENTORY_SIZE * 2);
 
     private int trackingDataForTick = -1;
-    private final Multiset<Integer> currTickAddedItems = HashMultiset.create();
-    private final Multiset<Skill> currTickXp = HashMultiset.create();
+    private final IntAccumulator currTickAddedItems = new IntAccumulator(INVENTORY_SIZE);
+    private int[] currTickItemTargets = new int[INVENTORY_SIZE];
+
+    /**
+     * Xp drops from the last few ticks that haven't been paired with items yet, oldest first.
+     */
+    private final int[] pendingTick = new int[MAX_PENDING_XP];
+    private final int[] pendingSkill = new int[MAX_PENDING_XP];
+    private final int[] pendingXp = new int[MAX_PENDING_XP];
+    private final int[] pendingItemCount = new int[MAX_PENDING_XP];
+    private int pendingSize;
+
+    /**
+     * Skill (ordinal + 1) that each item was unambiguously paired with in the past, used to attribute it when
+     * several skills have pending xp.
+     */
+    private final IntAccumulator itemSkills = new IntAccumulator(64);
 
     @Inject
     public SkillingItemTracker(Client client, ItemManager itemManager, MeasurementCreator measurementCreator,
@@ -53,39 +91,79 @@ public final class SkillingItemTracker {
         this.writer = writer;
     }
 
+    private static int[] emptySlots(int size) {
+        int[] slots = new int[size];
+        Arrays.fill(slots, -1);
+        return slots;
+    }
+
     public void onInventoryChanges(ItemContainer container) {
-        for (int i = 0; i < container.size(); i++) {
-            Item curr = container.getItem(i);
-            if (curr == null) {
+        final int size = container.size();
+        if (size > slotIds.length) {
+            final int oldSize = slotIds.length;
+            slotRawIds = Arrays.copyOf(slotRawIds, size);
+            slotRawQuantities = Arrays.copyOf(slotRawQuantities, size);
+            slotIds = Arrays.copyOf(slotIds, size);
+            slotQuantities = Arrays.copyOf(slotQuantities, size);
+            Arrays.fill(slotRawIds, oldSize, size, -1);
+            Arrays.fill(slotIds, oldSize, size, -1);
+        }
+
+        // Net the changed slots per item, so items moving between slots don't count as added
+        for (int i = 0; i < slotIds.length; i++) {
+            Item curr = i < size ? container.getItem(i) : null;
+            int rawId = curr != null ? curr.getId() : -1;
+            int rawQuantity = curr != null ? curr.getQuantity() : 0;
+            if (rawId == slotRawIds[i] && rawQuantity == slotRawQuantities[i]) {
                 continue;
             }
-            int id = itemManager.canonicalize(curr.getId());
-            if (IGNORED_ITEMS.contains(id)) {
-                continue;
+            int id = rawId >= 0 && rawQuantity > 0 ? itemManager.canonicalize(rawId) : -1;
+            if (id >= 0 && Arrays.binarySearch(IGNORED_ITEMS, id) >= 0) {
+                id = -1;
+            }
+            int quantity = id >= 0 ? rawQuantity : 0;
+
+            if (slotIds[i] >= 0) {
+                inventoryDelta.add(slotIds[i], -slotQuantities[i]);
             }
-            currInventoryItems.add(id, curr.getQuantity());
+            if (id >= 0) {
+                inventoryDelta.add(id, quantity);
+            }
+            slotRawIds[i] = rawId;
+            slotRawQuantities[i] = rawQuantity;
+            slotIds[i] = id;
+            slotQuantities[i] = quantity;
         }
 
         // Figure out what was added:
-        for (Multiset.Entry<Integer> curr : currInventoryItems.entrySet()) {
-            int prevCount = prevInventoryItems.count(curr.getElement());
-            int newItems = curr.getCount() - prevCount;
+        for (int i = 0; i < inventoryDelta.size(); i++) {
+            int newItems = inventoryDelta.valueAt(i);
             if (newItems > 0) {
-                onItemAdded(curr.getElement(), newItems);
+                onItemAdded(inventoryDelta.keyAt(i), newItems);
             }
         }
-
-        Multiset<Integer> tmp = prevInventoryItems;
-        prevInventoryItems = currInventoryItems;
-        currInventoryItems = tmp;
-        tmp.clear();
+        inventoryDelta.clear();
     }
 
     public void onXpGained(Skill skill, int xp) {
-        if (VALID_SKILLS.contains(skill)) {
-            flushIfNeeded();
-            currTickXp.add(skill, xp);
+        if (!VALID_SKILLS[skill.ordinal()]) {
+            return;
+        }
+        flushIfNeeded();
+        for (int e = pendingSize - 1; e >= 0 && pendingTick[e] == trackingDataForTick; e--) {
+            if (pendingSkill[e] == skill.ordinal()) {
+                pendingXp[e] += xp;
+                return;
+            }
+        }
+        if (pendingSize == MAX_PENDING_XP) {
+            removePending(0);
         }
+        pendingTick[pendingSize] = trackingDataForTick;
+        pendingSkill[pendingSize] = skill.ordinal();
+        pendingXp[pendingSize] = xp;
+        pendingItemCount[pendingSize] = 0;
+        pendingSize++;
     }
 
     private void onItemAdded(int id, int count) {
@@ -98,17 +176,110 @@ public final class SkillingItemTracker {
         if (trackingDataForTick == tick) {
             return;
         }
-        if (currTickXp.entrySet().size() == 1) {
-            Multiset.Entry<Skill> skill = Iterables.getOnlyElement(currTickXp.entrySet());
-            float weightedXp = skill.getCount() / (float) currTickAddedItems.size();
-            for (Multiset.Entry<Integer> item : currTickAddedItems.entrySet()) {
-                ItemComposition composition = itemManager.getItemComposition(item.getElement());
-                writer.submit(measurementCreator.createSkillingItemMeasurement(
-                        skill.getElement(), skill.getCount(), weightedXp, composition, item.getCount()));
-            }
+        if (currTickAddedItems.size() > 0) {
+            attributeItems();
+            currTickAddedItems.clear();
+        }
+        // drop xp that is too old to still receive items
+        int expired = 0;
+        while (expired < pendingSize && tick - pendingTick[expired] > ATTRIBUTION_TICKS) {
+            expired++;
+        }
+        if (expired > 0) {
+            removePending(0, expired);
         }
-        currTickAddedItems.clear();
-        currTickXp.clear();
         trackingDataForTick = tick;
     }
+
+    /**
+     * Attributes the items added in the tick being closed to pending xp drops.  Each item goes to the oldest
+     * pending drop of the skill it was learned to belong to, or, when unknown, to the only skill with pending xp in
+     * the window, or failing that the only skill with xp in this tick.  Anything else is ambiguous and dropped.
+     */
+    private void attributeItems() {
+        final int items = currTickAddedItems.size();
+        if (currTickItemTargets.length < items) {
+            currTickItemTargets = new int[items];
+        }
+
+        int windowSkill = -1;
+        int tickSkill = -1;
+        for (int e = 0; e < pendingSize; e++) {
+            windowSkill = mergeSkill(windowSkill, pendingSkill[e]);
+            if (pendingTick[e] == trackingDataForTick) {
+                tickSkill = mergeSkill(tickSkill, pendingSkill[e]);
+            }
+        }
+
+        boolean anyAttributed = false;
+        for (int i = 0; i < items; i++) {
+            int item = currTickAddedItems.keyAt(i);
+            int learned = itemSkills.get(item) - 1;
+            int skill = learned >= 0 ? learned : windowSkill >= 0 ? windowSkill : tickSkill;
+            int target = skill >= 0 ? oldestPending(skill) : -1;
+            currTickItemTargets[i] = target;
+            if (target < 0) {
+                continue;
+            }
+            anyAttributed = true;
+            pendingItemCount[target] += currTickAddedItems.valueAt(i);
+            if (learned < 0 && windowSkill >= 0) {
+                if (itemSkills.size() >= MAX_LEARNED_ITEMS) {
+                    itemSkills.clear();
+                }
+                itemSkills.add(item, skill + 1);
+            }
+        }
+        if (!anyAttributed) {
+            return;
+        }
+
+        for (int i = 0; i < items; i++) {
+            int target = currTickItemTargets[i];
+            if (target < 0) {
+                continue;
+            }
+            int xp = pendingXp[target];
+            float weightedXp = xp / (float) pendingItemCount[target];
+            ItemComposition composition = itemManager.getItemComposition(currTickAddedItems.keyAt(i));
+            writer.submit(measurementCreator.createSkillingItemMeasurement(
+                    SKILLS[pendingSkill[target]], xp, weightedXp, composition, currTickAddedItems.valueAt(i)));
+        }
+
+        // each xp drop produces one batch of items, so consume the drops that were paired
+        for (int e = pendingSize - 1; e >= 0; e--) {
+            if (pendingItemCount[e] > 0) {
+                removePending(e);
+            }
+        }
+    }
+
+    private static int mergeSkill(int current, int skill) {
+        if (current == -1 || current == skill) {
+            return skill;
+        }
+        return AMBIGUOUS;
+    }
+
+    private int oldestPending(int skill) {
+        for (int e = 0; e < pendingSize; e++) {
+            if (pendingSkill[e] == skill) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    private void removePending(int index) {
+        removePending(index, 1);
+    }
+
+    private void removePending(int index, int count) {
+        int tail = pendingSize - index - count;
+        System.arraycopy(pendingTick, index + count, pendingTick, index, tail);
+        System.arraycopy(pendingSkill, index + count, pendingSkill, index, tail);
+        System.arraycopy(pendingXp, index + count, pendingXp, index, tail);
+        System.arraycopy(pendingItemCount, index + count, pendingItemCount, index, tail);
+        pendingSize -= count;
+    }
 }
@@ -0,0 +1,19 @@
+package net.machpi.runelite.influxdb;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+@AllArgsConstructor
+@Getter
+public enum TimestampPrecision {
+    SECONDS("s", TimeUnit.SECONDS),
+    MILLISECONDS("ms", TimeUnit.MILLISECONDS);
+
+    /**
+     * Value of the {@code precision} write parameter.
+     */
+    private final String parameter;
+    private final TimeUnit unit;
+}
@@ -0,0 +1,63 @@
+package net.machpi.runelite.influxdb;
+
+import net.runelite.api.events.VarbitChanged;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Routes var changes to only the handlers registered for the changed varbit or varp id, using dense tables
+ * indexed by id so dispatching a change is a single array lookup.
+ */
+final class VarDispatcher {
+    private static final IntConsumer[] NO_HANDLERS = new IntConsumer[0];
+
+    private IntConsumer[][] varbitHandlers = new IntConsumer[0][];
+    private IntConsumer[][] varpHandlers = new IntConsumer[0][];
+
+    /**
+     * Registers a handler invoked with the new value whenever the given varbit changes.
+     */
+    void onVarbit(int varbitId, IntConsumer handler) {
+        varbitHandlers = register(varbitHandlers, varbitId, handler);
+    }
+
+    /**
+     * Registers a handler invoked with the new value whenever the given varp changes.
+     */
+    void onVarp(int varpId, IntConsumer handler) {
+        varpHandlers = register(varpHandlers, varpId, handler);
+    }
+
+    void dispatch(VarbitChanged event) {
+        // Varbit changes report the backing varp as well, so only fall back to the varp when no varbit is set
+        IntConsumer[] handlers = event.getVarbitId() != -1
+                ? lookup(varbitHandlers, event.getVarbitId())
+                : lookup(varpHandlers, event.getVarpId());
+        for (IntConsumer handler : handlers) {
+            handler.accept(event.getValue());
+        }
+    }
+
+    private static IntConsumer[] lookup(IntConsumer[][] table, int id) {
+        if (id < 0 || id >= table.length || table[id] == null) {
+            return NO_HANDLERS;
+        }
+        return table[id];
+    }
+
+    private static IntConsumer[][] register(IntConsumer[][] table, int id, IntConsumer handler) {
+        if (id >= table.length) {
+            table = Arrays.copyOf(table, id + 1);
+        }
+        IntConsumer[] existing = table[id];
+        if (existing == null) {
+            table[id] = new IntConsumer[]{handler};
+        } else {
+            IntConsumer[] grown = Arrays.copyOf(existing, existing.length + 1);
+            grown[existing.length] = handler;
+            table[id] = grown;
+        }
+        return table;
+    }
+}
@@ -11,8 +11,8 @@ public final class WorldTags {
     private WorldTags() {
     }
 
-    private static final String TAG_VARIANT = "variant";
-    private static final String TAG_LEAGUE = "league";
+    static final String TAG_VARIANT = "variant";
+    static final String TAG_LEAGUE = "league";
 
     public static Map<String, String> tagsForWorld(EnumSet<WorldType> worldTypeData) {
         Variant variant = null;
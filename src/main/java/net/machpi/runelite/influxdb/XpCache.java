@@ -0,0 +1,184 @@
+package net.machpi.runelite.influxdb;
+
+import net.machpi.runelite.influxdb.write.InfluxWriter;
+import net.machpi.runelite.influxdb.write.Measurement;
+import net.runelite.api.Client;
+import net.runelite.api.Experience;
+import net.runelite.api.Skill;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Per-skill experience and levels kept up to date from stat changes, so the overall totals can be maintained
+ * incrementally and every skill that changed within a tick is measured once.
+ */
+@Singleton
+public class XpCache {
+    private static final Skill[] SKILLS = Skill.values();
+    private static final long HISTORY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Client client;
+    private final MeasurementCreator measurer;
+    private final InfluxWriter writer;
+
+    private final int[] xp = new int[SKILLS.length];
+    private final int[] realLevel = new int[SKILLS.length];
+    private final int[] virtualLevel = new int[SKILLS.length];
+    private final boolean[] known = new boolean[SKILLS.length];
+    private final boolean[] changed = new boolean[SKILLS.length];
+    private final RateWindow[] rates = new RateWindow[SKILLS.length];
+    private final RateWindow overallRates = new RateWindow("xp");
+    private int knownCount;
+    private boolean anyChanged;
+
+    private long totalXp;
+    private int totalRealLevel;
+    private int totalVirtualLevel;
+
+    @Inject
+    public XpCache(Client client, MeasurementCreator measurer, InfluxWriter writer) {
+        this.client = client;
+        this.measurer = measurer;
+        this.writer = writer;
+        for (int i = 0; i < SKILLS.length; i++) {
+            rates[i] = new RateWindow("xp");
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(xp, 0);
+        Arrays.fill(realLevel, 0);
+        Arrays.fill(virtualLevel, 0);
+        Arrays.fill(known, false);
+        Arrays.fill(changed, false);
+        knownCount = 0;
+        anyChanged = false;
+        totalXp = 0;
+        totalRealLevel = 0;
+        totalVirtualLevel = 0;
+        for (RateWindow rate : rates) {
+            rate.reset();
+        }
+        overallRates.reset();
+    }
+
+    /**
+     * @return the recorded real level of the skill, or -1 if it hasn't been seen since the last clear
+     */
+    public int getRealLevel(Skill skill) {
+        final int i = skill.ordinal();
+        return known[i] ? realLevel[i] : -1;
+    }
+
+    /**
+     * Records the current experience and level of a skill.
+     *
+     * @return the previously recorded experience, or -1 if the skill hasn't been seen since the last clear
+     */
+    public int update(Skill skill, int newXp, int newRealLevel) {
+        final int i = skill.ordinal();
+        final int previous = known[i] ? xp[i] : -1;
+        if (!known[i]) {
+            known[i] = true;
+            knownCount++;
+        } else if (previous == newXp && realLevel[i] == newRealLevel) {
+            return previous;
+        } else {
+            changed[i] = true;
+            anyChanged = true;
+        }
+        final int newVirtualLevel = Experience.getLevelForXp(newXp);
+        totalXp += newXp - xp[i];
+        totalRealLevel += newRealLevel - realLevel[i];
+        totalVirtualLevel += newVirtualLevel - virtualLevel[i];
+        xp[i] = newXp;
+        realLevel[i] = newRealLevel;
+        virtualLevel[i] = newVirtualLevel;
+
+        final long now = System.currentTimeMillis();
+        rates[i].record(now, newXp);
+        // partial totals would skew the overall rates, so only start recording once every skill is known
+        if (knownCount == SKILLS.length) {
+            overallRates.record(now, totalXp);
+        }
+        return previous;
+    }
+
+    /**
+     * Loads every skill from the client and marks them all as changed, and seeds the rates with the last hour of
+     * experience kept in the local store.
+     */
+    public void load() {
+        for (Skill skill : SKILLS) {
+            update(skill, client.getSkillExperience(skill), client.getRealSkillLevel(skill));
+        }
+        Arrays.fill(changed, true);
+        anyChanged = true;
+
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < SKILLS.length; i++) {
+            seed(rates[i], SKILLS[i].name(), now);
+        }
+        seed(overallRates, MeasurementCreator.OVERALL_SKILL, now);
+    }
+
+    private void seed(RateWindow window, String skill, long now) {
+        final List<Measurement> history = new ArrayList<>();
+        writer.queryLocal(measurer.createXpSeries(skill), now - HISTORY_MILLIS, now, history::add);
+        final long[] times = new long[history.size()];
+        final long[] samples = new long[history.size()];
+        int count = 0;
+        for (Measurement m : history) {
+            final Number value = m.getNumericValues().get("xp");
+            if (value != null) {
+                times[count] = m.getTime();
+                samples[count] = value.longValue();
+                count++;
+            }
+        }
+        window.seed(Arrays.copyOf(times, count), Arrays.copyOf(samples, count));
+    }
+
+    private void loadUnknown() {
+        for (int i = 0; i < SKILLS.length; i++) {
+            if (!known[i]) {
+                update(SKILLS[i], client.getSkillExperience(SKILLS[i]), client.getRealSkillLevel(SKILLS[i]));
+            }
+        }
+    }
+
+    /**
+     * Measures every skill that changed since the last call, plus the overall totals if any did.
+     */
+    public void measureChanged(Consumer<Measurement> target) {
+        if (!anyChanged) {
+            return;
+        }
+        for (int i = 0; i < SKILLS.length; i++) {
+            if (changed[i] && xp[i] != 0) {
+                target.accept(measurer.createXpMeasurement(SKILLS[i].name(), xp[i], realLevel[i], virtualLevel[i], rates[i]));
+            }
+        }
+        // skills without experience may never have been reported, so fill them in before computing the totals
+        if (knownCount < SKILLS.length) {
+            loadUnknown();
+        }
+        if (totalXp != 0) {
+            target.accept(measurer.createXpMeasurement(MeasurementCreator.OVERALL_SKILL, totalXp, totalRealLevel, totalVirtualLevel, overallRates));
+        }
+        discardChanges();
+    }
+
+    public void discardChanges() {
+        if (anyChanged) {
+            Arrays.fill(changed, false);
+            anyChanged = false;
+        }
+    }
+}
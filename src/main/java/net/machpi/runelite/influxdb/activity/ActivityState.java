@@ -1,30 +1,20 @@
 package net.machpi.runelite.influxdb.activity;
 
-import com.google.common.collect.ComparisonChain;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
-import net.machpi.runelite.influxdb.InfluxDbConfig;
+import net.machpi.runelite.influxdb.InfluxDbConfigCache;
 import net.machpi.runelite.influxdb.MeasurementCreator;
 import net.machpi.runelite.influxdb.write.Measurement;
 
 import javax.inject.Inject;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.EnumMap;
-import java.util.Objects;
+import java.util.Arrays;
 import java.util.Optional;
-import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 @Slf4j
 public class ActivityState {
 
-    @Data
-    private static class EventWithTime {
-        private final GameEvent type;
-        private final Instant start;
-        private Instant updated;
-    }
-
     @Data
     public static class State {
         private final String skill;
@@ -32,30 +22,63 @@ public class ActivityState {
         private final String locationType;
     }
 
-    private final InfluxDbConfig config;
+    private static final int MIN_PRIORITY;
+    private static final int PRIORITY_LEVELS;
+
+    static {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (GameEvent event : GameEvent.values()) {
+            min = Math.min(min, event.getPriority());
+            max = Math.max(max, event.getPriority());
+        }
+        MIN_PRIORITY = min;
+        PRIORITY_LEVELS = max - min + 1;
+    }
+
+    private final InfluxDbConfigCache config;
     private final MeasurementCreator measurer;
+    private final LongSupplier nanoTime;
+
+    /**
+     * Latest non-clearing (skill) event for each priority level, indexed by {@code priority - MIN_PRIORITY}.
+     * Older events of the same priority can never be chosen over the latest one, and time out no later than it,
+     * so they don't need to be retained.
+     */
+    private final GameEvent[] skillEvents = new GameEvent[PRIORITY_LEVELS];
+    private final long[] skillUpdated = new long[PRIORITY_LEVELS];
+    private int bestSkillSlot = -1;
 
-    private final EnumMap<GameEvent, EventWithTime> latestEvents = new EnumMap<>(GameEvent.class);
-    private final TreeSet<EventWithTime> events;
+    /**
+     * Triggering a clearing event removes all other clearing events, so there is at most one at a time.
+     */
+    private GameEvent clearEvent;
+    private long clearStart;
+
+    private State state;
 
+    private State lastMeasuredState;
+    private long lastMeasuredAt;
 
     @Inject
-    public ActivityState(final InfluxDbConfig config, final MeasurementCreator measurer) {
+    public ActivityState(final InfluxDbConfigCache config, final MeasurementCreator measurer) {
+        this(config, measurer, System::nanoTime);
+    }
+
+    ActivityState(final InfluxDbConfigCache config, final MeasurementCreator measurer, final LongSupplier nanoTime) {
         this.config = config;
         this.measurer = measurer;
-        this.events = new TreeSet<>((a, b) -> ComparisonChain.start()
-                .compare(b.getType().getPriority(), a.getType().getPriority())
-                .compare(b.getUpdated(), a.getUpdated())
-                .result()
-        );
+        this.nanoTime = nanoTime;
     }
 
     /**
      * Reset state.
      */
-    public void reset() {
-        events.clear();
-        latestEvents.clear();
+    public synchronized void reset() {
+        Arrays.fill(skillEvents, null);
+        bestSkillSlot = -1;
+        clearEvent = null;
+        state = null;
     }
 
     /**
@@ -63,92 +86,101 @@ public class ActivityState {
      *
      * @param eventType event type
      */
-    public void triggerEvent(final GameEvent eventType) {
-        if (!config.writeActivity()) return;
-
-        EventWithTime event = latestEvents.get(eventType);
-        if (event == null) {
-            event = new EventWithTime(eventType, Instant.now());
-            latestEvents.put(eventType, event);
-        } else {
-            events.remove(event);
+    public synchronized void triggerEvent(final GameEvent eventType) {
+        if (!config.get().writeActivity()) return;
+
+        final long now = nanoTime.getAsLong();
+        if (eventType.isShouldClear()) {
+            if (clearEvent != eventType) {
+                clearEvent = eventType;
+                clearStart = now;
+                state = null;
+            }
+            return;
         }
-        event.setUpdated(Instant.now());
-        events.add(event);
-
-        if (event.getType().isShouldClear()) {
-            events.removeIf(e -> {
-                boolean remove = e.getType() != eventType && e.getType().isShouldClear();
-                if (remove) latestEvents.remove(e.getType());
-                return remove;
-            });
+
+        final int slot = eventType.getPriority() - MIN_PRIORITY;
+        skillUpdated[slot] = now;
+        if (skillEvents[slot] != eventType) {
+            skillEvents[slot] = eventType;
+            if (slot >= bestSkillSlot) {
+                bestSkillSlot = slot;
+                state = null;
+            }
         }
     }
 
-    public State getState() {
-        if (events.isEmpty() || !config.writeActivity()) return null;
-
-        final Duration activityTimeout = Duration.ofMinutes(config.activityTimeout());
-        final Instant now = Instant.now();
-        final EventWithTime eventWithTime = events.first();
+    public synchronized State getState() {
+        if (!config.get().writeActivity()) return null;
+        if (clearEvent == null && bestSkillSlot < 0) return null;
 
         // if we've been in the menu for more than the timeout, stop sending updates.
-        if (Objects.equals(GameEvent.IN_MENU.getLocation(), eventWithTime.getType().getLocation()) && now.isAfter(eventWithTime.getStart().plus(activityTimeout))) {
+        if (bestSkillSlot < 0 && clearEvent == GameEvent.IN_MENU
+                && nanoTime.getAsLong() - clearStart > activityTimeoutNanos()) {
             return null;
         }
 
-        String location = null;
-        String skill = null;
-        String locationType = null;
-
-        for (EventWithTime e : events) {
-            // get the highest priority skill from our event list
-            if (skill == null && e.getType().getSkill() != null) {
-                skill = e.getType().getSkill().name();
-            }
-
-            // get the highest priority or latest area from our event list
-            if (location == null) {
-                location = e.getType().getLocation();
-            }
-
-            if (locationType == null && e.getType().getLocationType() != null) {
-                locationType = e.getType().getLocationType().name();
-            }
-
-            if (skill != null && location != null && locationType != null) {
-                break;
-            }
+        if (state == null) {
+            final GameEvent skillEvent = bestSkillSlot >= 0 ? skillEvents[bestSkillSlot] : null;
+            final LocationType locationType = clearEvent != null ? clearEvent.getLocationType() : null;
+            state = new State(
+                    skillEvent != null ? skillEvent.getSkill().name() : null,
+                    clearEvent != null ? clearEvent.getLocation() : null,
+                    locationType != null ? locationType.name() : null);
         }
-
-        return new State(skill, location, locationType);
+        return state;
     }
 
     /**
      * Check for current state timeout and act upon it.
      */
-    public void checkForTimeout() {
-        if (events.isEmpty() || !config.writeActivity()) {
+    public synchronized void checkForTimeout() {
+        if (bestSkillSlot < 0 || !config.get().writeActivity()) {
             return;
         }
 
-        final Duration activityTimeout = Duration.ofMinutes(config.activityTimeout());
-        final Instant now = Instant.now();
+        final long activityTimeout = activityTimeoutNanos();
+        final long now = nanoTime.getAsLong();
+
+        for (int slot = 0; slot <= bestSkillSlot; slot++) {
+            final GameEvent event = skillEvents[slot];
+            if (event != null && event.isShouldTimeout() && now - skillUpdated[slot] > activityTimeout) {
+                skillEvents[slot] = null;
+            }
+        }
+        final int previousBest = bestSkillSlot;
+        while (bestSkillSlot >= 0 && skillEvents[bestSkillSlot] == null) {
+            bestSkillSlot--;
+        }
+        if (previousBest != bestSkillSlot) {
+            state = null;
+        }
+    }
 
-        events.removeIf(event -> {
-            boolean remove = event.getType().isShouldTimeout() && now.isAfter(event.getUpdated().plus(activityTimeout));
-            if (remove) latestEvents.remove(event.getType());
-            return remove;
-        });
+    private long activityTimeoutNanos() {
+        return TimeUnit.MINUTES.toNanos(config.get().activityTimeout());
     }
 
-    public Optional<Measurement> measure() {
-        if (!config.writeActivity()) return Optional.empty();
+    /**
+     * Measures the current state if it has changed since it was last measured, or if it hasn't changed within the
+     * keep-alive interval.
+     */
+    public synchronized Optional<Measurement> measure() {
+        if (!config.get().writeActivity()) return Optional.empty();
 
         State state = getState();
-        if (state == null)
+        if (state == null) {
+            lastMeasuredState = null;
             return Optional.empty();
+        }
 
+        final long now = nanoTime.getAsLong();
+        if (state.equals(lastMeasuredState)
+                && now - lastMeasuredAt < TimeUnit.SECONDS.toNanos(config.get().activityKeepAliveSeconds())) {
+            return Optional.empty();
+        }
+        lastMeasuredState = state;
+        lastMeasuredAt = now;
         return measurer.createActivityMeasurement(state);
     }
 }
@@ -25,8 +25,8 @@
  */
 package net.machpi.runelite.influxdb.activity;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import net.runelite.api.Client;
@@ -36,7 +36,6 @@ import net.runelite.api.Varbits;
 import javax.annotation.Nullable;
 import java.util.EnumMap;
 import java.util.List;
-import java.util.Map;
 
 
 enum LocationType {
@@ -283,12 +282,15 @@ public enum GameEvent {
     POI_PLAYER_OWNED_HOUSE("Player Owned House", LocationType.POI, 7769),
     ;
 
-    private static final Map<Integer, GameEvent> FROM_REGION;
+    /**
+     * Region IDs are 16 bits wide, so events are looked up from a dense table indexed by region ID.
+     */
+    private static final int REGION_COUNT = 1 << 16;
+    private static final GameEvent[] FROM_REGION = new GameEvent[REGION_COUNT];
     private static final List<GameEvent> FROM_VARBITS;
     private static final EnumMap<Skill, GameEvent> FROM_SKILL = new EnumMap<Skill, GameEvent>(Skill.class);
 
     static {
-        ImmutableMap.Builder<Integer, GameEvent> regionMapBuilder = new ImmutableMap.Builder<>();
         ImmutableList.Builder<GameEvent> fromVarbitsBuilder = ImmutableList.builder();
         for (GameEvent gameEvent : GameEvent.values()) {
             if (gameEvent.getVarbit() != null) {
@@ -307,10 +309,11 @@ public enum GameEvent {
 
 
             for (int region : gameEvent.getRegionIds()) {
-                regionMapBuilder.put(region, gameEvent);
+                Preconditions.checkState(FROM_REGION[region] == null,
+                        "Region %s is used by both %s and %s", region, FROM_REGION[region], gameEvent);
+                FROM_REGION[region] = gameEvent;
             }
         }
-        FROM_REGION = regionMapBuilder.build();
         FROM_VARBITS = fromVarbitsBuilder.build();
     }
 
@@ -370,7 +373,17 @@ public enum GameEvent {
     }
 
     public static GameEvent fromRegion(final int regionId) {
-        return FROM_REGION.get(regionId);
+        if (regionId < 0 || regionId >= REGION_COUNT) {
+            return null;
+        }
+        return FROM_REGION[regionId];
+    }
+
+    /**
+     * Events that are triggered by a varbit being set, rather than a region or skill.
+     */
+    public static List<GameEvent> varbitEvents() {
+        return FROM_VARBITS;
     }
 
     public static GameEvent fromVarbit(final Client client) {
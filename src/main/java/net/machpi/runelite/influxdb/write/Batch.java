@@ -0,0 +1,95 @@
+package net.machpi.runelite.influxdb.write;
+
+import com.google.common.base.Suppliers;
+import lombok.Getter;
+import net.machpi.runelite.influxdb.TimestampPrecision;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Measurements drained in one flush, shared by every sink.  The line protocol encoding is done once here rather than
+ * by each sink.
+ */
+final class Batch {
+    @Getter
+    private final List<Measurement> measurements;
+    private final Set<Measurement> sums;
+    @Getter
+    private final List<String> lines;
+    @Getter
+    private final TimestampPrecision precision;
+    private final Supplier<String> body;
+    /**
+     * Shared by the batches made from this one with {@link #withLines(List)}, so it's reported once all of them are.
+     */
+    @Getter
+    private final Delivery delivery;
+
+    /**
+     * @param sums measurements that are sums over the flush interval, compared by identity
+     */
+    Batch(List<Measurement> measurements, Set<Measurement> sums, TimestampPrecision precision) {
+        this(measurements, sums, precision, Delivery.untracked());
+    }
+
+    Batch(List<Measurement> measurements, Set<Measurement> sums, TimestampPrecision precision, Delivery delivery) {
+        this(measurements, sums, encode(measurements, precision), precision, delivery);
+    }
+
+    private Batch(List<Measurement> measurements, Set<Measurement> sums, List<String> lines,
+                  TimestampPrecision precision, Delivery delivery) {
+        this.measurements = Collections.unmodifiableList(measurements);
+        this.sums = Collections.unmodifiableSet(sums);
+        this.lines = Collections.unmodifiableList(lines);
+        this.precision = precision;
+        this.body = Suppliers.memoize(() -> String.join("\n", this.lines));
+        this.delivery = delivery;
+    }
+
+    private static List<String> encode(List<Measurement> measurements, TimestampPrecision precision) {
+        List<String> lines = new ArrayList<>(measurements.size());
+        for (Measurement m : measurements) {
+            String line = LineProtocol.encode(m, precision);
+            if (line != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Creates a batch of lines already encoded elsewhere, such as by another client.
+     */
+    static Batch ofLines(List<String> lines, TimestampPrecision precision) {
+        return new Batch(Collections.emptyList(), Collections.emptySet(), lines, precision, Delivery.untracked());
+    }
+
+    /**
+     * Returns a batch of these lines followed by others in the same precision.  Only the lines are merged, so the
+     * result is only for sinks that write line protocol.
+     */
+    Batch withLines(List<String> more) {
+        if (more.isEmpty()) {
+            return this;
+        }
+        List<String> merged = new ArrayList<>(lines.size() + more.size());
+        merged.addAll(lines);
+        merged.addAll(more);
+        return new Batch(measurements, sums, merged, precision, delivery);
+    }
+
+    boolean isSum(Measurement m) {
+        return sums.contains(m);
+    }
+
+    /**
+     * The lines joined into a single request body.
+     */
+    String getBody() {
+        return body.get();
+    }
+}
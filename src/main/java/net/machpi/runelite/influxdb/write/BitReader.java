@@ -0,0 +1,58 @@
+package net.machpi.runelite.influxdb.write;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a bit stream written by {@link BitWriter} from a region of a buffer, without copying it.
+ */
+final class BitReader {
+    private final ByteBuffer buffer;
+    private final int start;
+    private int position;
+
+    BitReader(ByteBuffer buffer, int start) {
+        this.buffer = buffer;
+        this.start = start;
+    }
+
+    long read(int count) {
+        long value = 0;
+        while (count > 0) {
+            int available = 8 - (position & 7);
+            int take = Math.min(available, count);
+            int b = buffer.get(start + (position >>> 3)) & 0xFF;
+            value = (value << take) | ((b >>> (available - take)) & ((1 << take) - 1));
+            position += take;
+            count -= take;
+        }
+        return value;
+    }
+
+    /**
+     * Reads {@code count} bits as a two's complement value.
+     */
+    long readSigned(int count) {
+        int shift = Long.SIZE - count;
+        return (read(count) << shift) >> shift;
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+
+    long readVarint() {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            long b = read(8);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    long readZigZag() {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
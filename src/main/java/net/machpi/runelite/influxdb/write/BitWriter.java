@@ -0,0 +1,68 @@
+package net.machpi.runelite.influxdb.write;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable bit stream, written most significant bit first.
+ */
+final class BitWriter {
+    private long[] words = new long[4];
+    private int bits;
+
+    /**
+     * Writes the low {@code count} bits of {@code value}, {@code 1 <= count <= 64}.
+     */
+    void write(long value, int count) {
+        if (count < Long.SIZE) {
+            value &= (1L << count) - 1;
+        }
+        int word = bits >>> 6;
+        if (word + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int free = Long.SIZE - (bits & 63);
+        if (count <= free) {
+            words[word] |= value << (free - count);
+        } else {
+            int overflow = count - free;
+            words[word] |= value >>> overflow;
+            words[word + 1] |= value << (Long.SIZE - overflow);
+        }
+        bits += count;
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint, in whole bytes.
+     */
+    void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            write((value & 0x7F) | 0x80, 8);
+            value >>>= 7;
+        }
+        write(value, 8);
+    }
+
+    void writeZigZag(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    int bitLength() {
+        return bits;
+    }
+
+    int byteLength() {
+        return (bits + 7) >>> 3;
+    }
+
+    void writeTo(ByteBuffer output) {
+        int bytes = byteLength();
+        for (int i = 0; i < bytes; i++) {
+            output.put((byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3))));
+        }
+    }
+}
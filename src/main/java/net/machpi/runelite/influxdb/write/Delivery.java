@@ -0,0 +1,61 @@
+package net.machpi.runelite.influxdb.write;
+
+import java.util.function.Consumer;
+
+/**
+ * Counts the sinks a batch is queued for, and reports once each of them has either written or dropped it.  A batch
+ * still queued when its sinks are closed is never reported.
+ */
+final class Delivery {
+    private final Consumer<Boolean> listener;
+    /**
+     * Sinks that haven't written or dropped the batch yet, plus one until {@link #release()}.
+     */
+    private int pending = 1;
+    private boolean dropped;
+
+    /**
+     * @param listener receives whether every sink wrote the batch
+     */
+    Delivery(Consumer<Boolean> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * For batches whose delivery nothing waits for.
+     */
+    static Delivery untracked() {
+        return new Delivery(written -> {
+        });
+    }
+
+    synchronized void queued() {
+        pending++;
+    }
+
+    void written() {
+        complete(false);
+    }
+
+    void dropped() {
+        complete(true);
+    }
+
+    /**
+     * Called once the batch has been queued for every sink, so it isn't reported before all of them are counted.
+     */
+    void release() {
+        complete(false);
+    }
+
+    private void complete(boolean drop) {
+        boolean done;
+        synchronized (this) {
+            dropped |= drop;
+            done = --pending == 0;
+        }
+        if (done) {
+            listener.accept(!dropped);
+        }
+    }
+}
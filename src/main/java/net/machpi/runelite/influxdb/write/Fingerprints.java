@@ -0,0 +1,123 @@
+package net.machpi.runelite.influxdb.write;
+
+import java.util.Map;
+
+/**
+ * Stable 64-bit fingerprints of series and measurement values, for detecting unchanged values without keeping or
+ * comparing the values themselves.  Each entry is hashed with FNV-1a and finalized with MurmurHash3's mixer, and
+ * entries are combined by addition so the result doesn't depend on map order.  Fingerprints are persisted between
+ * sessions, so they must not change between versions.
+ * <p>
+ * Values also have a second, independent 64-bit check hash, seeded and finalized differently, so unchanged values
+ * are detected by 128 bits without keeping the values to rule out a collision.
+ */
+final class Fingerprints {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /**
+     * Offset of the check hash, the fractional part of the golden ratio.
+     */
+    private static final long CHECK_OFFSET = 0x9e3779b97f4a7c15L;
+
+    private static final int TAG = 0;
+    private static final int STRING = 1;
+    private static final int INTEGRAL = 2;
+    private static final int FLOATING_POINT = 3;
+
+    private Fingerprints() {
+    }
+
+    static long series(Series series) {
+        long hash = mix(chars(FNV_OFFSET, series.getMeasurement()));
+        for (Map.Entry<String, String> tag : series.getTags().entrySet()) {
+            hash += mix(chars(field(FNV_OFFSET, TAG, tag.getKey()), tag.getValue()));
+        }
+        return hash;
+    }
+
+    static long values(Map<String, String> stringValues, Map<String, Number> numericValues) {
+        return values(stringValues, numericValues, FNV_OFFSET, false);
+    }
+
+    static long valuesCheck(Map<String, String> stringValues, Map<String, Number> numericValues) {
+        return values(stringValues, numericValues, CHECK_OFFSET, true);
+    }
+
+    private static long values(Map<String, String> stringValues, Map<String, Number> numericValues, long offset,
+                               boolean check) {
+        long hash = 0;
+        for (Map.Entry<String, String> field : stringValues.entrySet()) {
+            hash += mix(chars(field(offset, STRING, field.getKey()), field.getValue()), check);
+        }
+        for (Map.Entry<String, Number> field : numericValues.entrySet()) {
+            Number value = field.getValue();
+            if (value instanceof Double || value instanceof Float) {
+                hash += mix(bits(field(offset, FLOATING_POINT, field.getKey()),
+                        Double.doubleToLongBits(value.doubleValue())), check);
+            } else {
+                hash += mix(bits(field(offset, INTEGRAL, field.getKey()), value.longValue()), check);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Fingerprint of an ordered list of strings, such as settings, where null is the same as empty.
+     */
+    static long strings(String... values) {
+        long hash = FNV_OFFSET;
+        for (String value : values) {
+            if (value != null) {
+                hash = chars(hash, value);
+            }
+            // separate the values so ("ab", "c") and ("a", "bc") differ
+            hash = (hash ^ 0xFFFF) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    private static long field(long offset, int type, String key) {
+        long hash = (offset ^ type) * FNV_PRIME;
+        hash = chars(hash, key);
+        // separate the key from the value so ("ab", "c") and ("a", "bc") differ
+        return (hash ^ 0xFFFF) * FNV_PRIME;
+    }
+
+    private static long chars(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long bits(long hash, long value) {
+        for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+            hash = (hash ^ ((value >>> shift) & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * The check hash is finalized with SplitMix64's mixer instead, so it doesn't collide along with the fingerprint.
+     */
+    private static long mix(long hash, boolean check) {
+        if (!check) {
+            return mix(hash);
+        }
+        hash ^= hash >>> 30;
+        hash *= 0xbf58476d1ce4e5b9L;
+        hash ^= hash >>> 27;
+        hash *= 0x94d049bb133111ebL;
+        hash ^= hash >>> 31;
+        return hash;
+    }
+}
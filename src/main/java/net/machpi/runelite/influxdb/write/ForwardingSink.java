@@ -0,0 +1,102 @@
+package net.machpi.runelite.influxdb.write;
+
+import lombok.extern.slf4j.Slf4j;
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hands batches to the {@link SharedAggregator} of another client on this machine, over one loopback connection that
+ * is kept open between flushes.  A batch only succeeds once the aggregator has accepted it.  If the aggregator uploads
+ * somewhere else, the batch fails and the listener is told, so this client can go back to uploading itself.
+ */
+@Slf4j
+class ForwardingSink implements Sink {
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 10_000;
+
+    private final Runnable misrouted;
+
+    private Socket socket;
+    private int port;
+    private DataOutputStream out;
+    private InputStream in;
+
+    ForwardingSink(Runnable misrouted) {
+        this.misrouted = misrouted;
+    }
+
+    @Override
+    public synchronized void write(Batch batch, InfluxDbConfig config) throws IOException {
+        if (batch.getLines().isEmpty()) {
+            return;
+        }
+        connect(config.aggregatorPort());
+        int response;
+        try {
+            byte[] body = batch.getBody().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(SharedAggregator.MAGIC);
+            out.writeLong(HttpLineProtocolSink.destination(config));
+            out.writeUTF(batch.getPrecision().name());
+            out.writeInt(body.length);
+            out.write(body);
+            out.flush();
+            response = in.read();
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+        if (response < 0) {
+            close();
+            throw new IOException("Aggregator closed the connection");
+        }
+        if (response == SharedAggregator.MISROUTED) {
+            misrouted.run();
+            throw new IOException("Aggregator uploads to another destination");
+        }
+        if (response != SharedAggregator.ACCEPTED) {
+            throw new IOException("Aggregator has too many points pending");
+        }
+    }
+
+    private void connect(int port) throws IOException {
+        if (socket != null && this.port == port) {
+            return;
+        }
+        close();
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = socket.getInputStream();
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+        this.socket = socket;
+        this.port = port;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            log.debug("Failed to close aggregator connection", ex);
+        }
+        socket = null;
+        out = null;
+        in = null;
+    }
+}
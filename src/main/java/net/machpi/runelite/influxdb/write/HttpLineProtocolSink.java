@@ -0,0 +1,199 @@
+package net.machpi.runelite.influxdb.write;
+
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+import net.machpi.runelite.influxdb.ServerApiVersion;
+import net.machpi.runelite.influxdb.TimestampPrecision;
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Posts line protocol to an influx server, through either the v1 {@code /write} or the v2 {@code /api/v2/write}
+ * endpoint.  The server is either the one configured in the server settings, or given by a complete write URL such
+ * as {@code http://host:8086/write?db=runelite&u=user&p=pass} or
+ * {@code https://host/api/v2/write?org=org&bucket=bucket&token=token}.  Large bodies are sent gzip compressed.
+ */
+class HttpLineProtocolSink implements Sink {
+    private static final MediaType LINE_PROTOCOL = MediaType.parse("text/plain; charset=utf-8");
+    // smaller bodies aren't worth compressing
+    private static final int GZIP_THRESHOLD = 4096;
+
+    private final OkHttpClient httpClient;
+    @Nullable
+    private final String writeUrl;
+
+    /**
+     * @param writeUrl complete write URL, or null for the configured server
+     */
+    HttpLineProtocolSink(OkHttpClient httpClient, @Nullable String writeUrl) {
+        this.httpClient = httpClient;
+        this.writeUrl = writeUrl;
+    }
+
+    static boolean isConfigured(InfluxDbConfig config) {
+        if (StringUtils.isEmpty(config.getServerUrl())) {
+            return false;
+        }
+        if (config.serverApiVersion() == ServerApiVersion.V2) {
+            return !StringUtils.isEmpty(config.getServerBucket());
+        }
+        return !StringUtils.isEmpty(config.getDatabase());
+    }
+
+    /**
+     * The complete write URLs of the additional servers, skipping blank lines and comments.
+     */
+    static List<String> additionalServers(InfluxDbConfig config) {
+        List<String> writeUrls = new ArrayList<>();
+        for (String line : StringUtils.split(StringUtils.defaultString(config.getAdditionalServers()), '\n')) {
+            String writeUrl = line.trim();
+            if (!writeUrl.isEmpty() && !writeUrl.startsWith("#")) {
+                writeUrls.add(writeUrl);
+            }
+        }
+        return writeUrls;
+    }
+
+    /**
+     * Names an additional server by its host, port and database or bucket, leaving out any credentials the write URL
+     * holds, for logs, health and thread names.
+     */
+    static String describe(String writeUrl) {
+        HttpUrl parsed = HttpUrl.parse(writeUrl);
+        if (parsed == null) {
+            return "invalid URL";
+        }
+        String target = parsed.queryParameter("bucket") != null ? parsed.queryParameter("bucket") : parsed.queryParameter("db");
+        return parsed.host() + ":" + parsed.port() + (target != null ? " " + target : "");
+    }
+
+    /**
+     * Whether there is any server to upload to, either configured or additional.
+     */
+    static boolean hasServers(InfluxDbConfig config) {
+        return isConfigured(config) || !additionalServers(config).isEmpty();
+    }
+
+    /**
+     * Fingerprint of where uploads go: the configured server's database or bucket, and every additional server.
+     * Credentials are left out, since they don't change where points end up and the fingerprint may be persisted.
+     */
+    static long destination(InfluxDbConfig config) {
+        List<String> values = new ArrayList<>();
+        if (isConfigured(config)) {
+            values.add(config.getServerUrl());
+            values.add(config.serverApiVersion().name());
+            if (config.serverApiVersion() == ServerApiVersion.V2) {
+                values.add(config.getServerOrg());
+                values.add(config.getServerBucket());
+            } else {
+                values.add(config.getDatabase());
+                values.add(config.getServerRetentionPolicy());
+            }
+        }
+        for (String writeUrl : additionalServers(config)) {
+            HttpUrl parsed = HttpUrl.parse(writeUrl);
+            values.add(parsed == null ? "" : parsed.newBuilder()
+                    .username("")
+                    .password("")
+                    .removeAllQueryParameters("u")
+                    .removeAllQueryParameters("p")
+                    .removeAllQueryParameters("token")
+                    .build()
+                    .toString());
+        }
+        return Fingerprints.strings(values.toArray(new String[0]));
+    }
+
+    @Override
+    public void write(Batch batch, InfluxDbConfig config) throws IOException {
+        TimestampPrecision precision = batch.getPrecision();
+        Request.Builder request = writeUrl != null
+                ? explicitRequest(writeUrl, precision)
+                : configuredRequest(config, precision);
+        byte[] body = batch.getBody().getBytes(StandardCharsets.UTF_8);
+        if (body.length >= GZIP_THRESHOLD) {
+            body = gzip(body);
+            request.header("Content-Encoding", "gzip");
+        }
+        request.post(RequestBody.create(LINE_PROTOCOL, body));
+        try (Response response = httpClient.newCall(request.build()).execute()) {
+            if (!response.isSuccessful()) {
+                ResponseBody errorBody = response.body();
+                throw new HttpStatusException(response.code(), "Write failed with HTTP " + response.code() + ": "
+                        + (errorBody != null ? errorBody.string() : response.message()));
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static Request.Builder explicitRequest(String writeUrl, TimestampPrecision precision) throws IOException {
+        HttpUrl parsed = HttpUrl.parse(writeUrl);
+        if (parsed == null) {
+            // not the URL itself, which may hold credentials
+            throw new IOException("Invalid write URL");
+        }
+        HttpUrl.Builder url = parsed.newBuilder()
+                .setQueryParameter("precision", precision.getParameter());
+        Request.Builder request = new Request.Builder();
+        // v2 only accepts tokens in a header
+        String token = parsed.queryParameter("token");
+        if (token != null) {
+            url.removeAllQueryParameters("token");
+            request.header("Authorization", "Token " + token);
+        }
+        return request.url(url.build());
+    }
+
+    private static Request.Builder configuredRequest(InfluxDbConfig config, TimestampPrecision precision) throws IOException {
+        HttpUrl serverUrl = HttpUrl.parse(config.getServerUrl());
+        if (serverUrl == null) {
+            throw new IOException("Invalid server URL " + config.getServerUrl());
+        }
+
+        HttpUrl.Builder url = serverUrl.newBuilder();
+        Request.Builder request = new Request.Builder();
+        if (config.serverApiVersion() == ServerApiVersion.V2) {
+            url.addPathSegments("api/v2/write")
+                    .addQueryParameter("bucket", config.getServerBucket());
+            if (!StringUtils.isEmpty(config.getServerOrg())) {
+                url.addQueryParameter("org", config.getServerOrg());
+            }
+            if (!StringUtils.isEmpty(config.getServerToken())) {
+                request.header("Authorization", "Token " + config.getServerToken());
+            }
+        } else {
+            url.addPathSegment("write")
+                    .addQueryParameter("db", config.getDatabase());
+            if (!StringUtils.isEmpty(config.getServerRetentionPolicy())) {
+                url.addQueryParameter("rp", config.getServerRetentionPolicy());
+            }
+            if (!StringUtils.isEmpty(config.getServerUsername()) && !StringUtils.isEmpty(config.getServerPassword())) {
+                request.header("Authorization", Credentials.basic(config.getServerUsername(), config.getServerPassword()));
+            }
+        }
+        url.addQueryParameter("precision", precision.getParameter());
+        return request.url(url.build());
+    }
+}
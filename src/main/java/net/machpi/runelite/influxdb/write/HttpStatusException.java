@@ -0,0 +1,24 @@
+package net.machpi.runelite.influxdb.write;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+/**
+ * A write the server answered with an unsuccessful HTTP status.  Only server errors, timeouts and rate limiting are
+ * worth retrying: any other client error, such as a malformed line, a field type conflict, bad credentials or a
+ * missing database, fails the same way however often the batch is sent.
+ */
+@Getter
+class HttpStatusException extends IOException {
+    private final int status;
+
+    HttpStatusException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    boolean isRetryable() {
+        return status >= 500 || status == 408 || status == 429 || status < 400;
+    }
+}
@@ -2,35 +2,109 @@ package net.machpi.runelite.influxdb.write;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
-import lombok.Getter;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import net.machpi.runelite.influxdb.InfluxDbConfig;
+import net.machpi.runelite.influxdb.InfluxDbConfigCache;
 import net.machpi.runelite.influxdb.MeasurementCreator;
-import org.apache.commons.lang3.StringUtils;
-import org.influxdb.InfluxDB;
-import org.influxdb.InfluxDBFactory;
-import org.influxdb.dto.BatchPoints;
+import net.machpi.runelite.influxdb.TimestampPrecision;
+import net.runelite.client.RuneLite;
+import okhttp3.OkHttpClient;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Singleton
 public class InfluxWriter {
-    private final InfluxDbConfig config;
+    private static final File LINE_PROTOCOL_DIR = new File(new File(RuneLite.RUNELITE_DIR, "influxdb"), "lines");
+    private static final File LOCAL_STORE_DIR = new File(new File(RuneLite.RUNELITE_DIR, "influxdb"), "store");
+    private static final long REPLACE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final InfluxDbConfigCache config;
+    /**
+     * Whether writers keep the latest value of their series, for the scrape endpoint.
+     */
+    private final BooleanSupplier retainLatest;
     private final ConcurrentMap<Series, Writer> writers = new ConcurrentHashMap<>();
+    private final OkHttpClient httpClient;
+    /**
+     * Runners of the enabled sinks, keyed by name, or by complete write URL for the additional servers.  Only accessed
+     * while flushing or closing.  Each runner has its own sink instance, so a sink being closed by a disabled runner is
+     * never written by another.
+     */
+    private final Map<String, SinkRunner> runners = new LinkedHashMap<>();
+    /**
+     * Disabled runners that may still be closing their sink, keyed like {@link #runners}.  A sink isn't enabled again
+     * until the previous one of the same key is closed, since both may use the same files.
+     */
+    private final Map<String, SinkRunner> closing = new HashMap<>();
+    /**
+     * Keys of the runners that upload, which also take the lines forwarded by other clients.
+     */
+    private final Set<String> uploads = new HashSet<>();
+    private final SharedAggregator aggregator = new SharedAggregator();
+    /**
+     * Sink of the enabled local store, for reading history back.  Scans are synchronized with its writes.
+     */
+    @Nullable
+    private volatile LocalStore localStore;
+    /**
+     * Set by the forwarding sink when the aggregating client uploads somewhere else, so this client uploads itself
+     * until sharing is turned off or it becomes the aggregator.
+     */
+    private volatile boolean misrouted;
+    /**
+     * Lines waiting for somewhere to upload them, by precision: those a previous session couldn't upload before
+     * shutting down, those forwarded by other clients, and those still queued for an upload sink when it was disabled.
+     */
+    private final Map<TimestampPrecision, List<String>> heldLines = new EnumMap<>(TimestampPrecision.class);
+    private final ScrapeEndpoint scrapeEndpoint = new ScrapeEndpoint(output -> writers.values().forEach(writer -> {
+        Measurement latest = writer.getLatest();
+        if (latest != null) {
+            output.accept(latest);
+        }
+    }));
 
     @Inject
-    public InfluxWriter(InfluxDbConfig config) {
+    public InfluxWriter(InfluxDbConfigCache config, OkHttpClient httpClient) {
         this.config = config;
+        this.retainLatest = () -> config.get().serveMetrics();
+        this.httpClient = httpClient;
     }
 
     public void submit(Measurement m) {
@@ -41,125 +115,597 @@ public class InfluxWriter {
         return writer(s).isBlocked();
     }
 
-    private InfluxDB cachedServer = null;
-    private String serverUrl, serverUser, serverPass;
+    private Writer writer(Series s) {
+        return writers.computeIfAbsent(s, series -> {
+            switch (series.getMeasurement()) {
+                case MeasurementCreator.SERIES_SELF_LOC:
+                    return Writer.filtered(new ThrottledWriter(), SELF_DEDUPE, retainLatest);
+                case MeasurementCreator.SERIES_ACTIVITY:
+                    return Writer.unfiltered(new AlwaysWriter());
+                case MeasurementCreator.SERIES_LOOT:
+                    return Writer.unfiltered(new SwitchingWriter(() -> config.get().aggregateLoot(),
+                            new SummingWriter(Collections.emptySet()), new AlwaysWriter()));
+                case MeasurementCreator.SERIES_SKILLING_ITEMS:
+                    // weightedXp is fractional per action, but the field was created as an integer
+                    return Writer.unfiltered(new SummingWriter(
+                            Collections.singleton(MeasurementCreator.SKILLING_ITEMS_KEY_WEIGHTED_XP)));
+            }
+            Writer writer = Writer.deduplicated(new ThrottledWriter(), retainLatest,
+                    () -> TimeUnit.MINUTES.toMillis(config.get().unchangedKeepAliveMinutes()));
+            writer.persist(Fingerprints.series(series), restoredFingerprints);
+            return writer;
+        });
+    }
+
+    private static final int FINGERPRINT_FILE_MAGIC = 0x49444650;
+    private static final int FINGERPRINT_FILE_VERSION = 4;
+
+    /**
+     * Fingerprints of the values last written to each deduplicated series in previous sessions, keyed by the series
+     * fingerprint.
+     */
+    private final Map<Long, ValueFingerprint> restoredFingerprints = new ConcurrentHashMap<>();
+    /**
+     * Fingerprint of the settings deciding where values are written, which the deduplicated values were written to.
+     */
+    private volatile long destinations;
+
+    /**
+     * Fingerprint of the servers and other sinks values are written to, without credentials.  Values written to one
+     * destination say nothing about another, so they're only deduplicated against those written to the same ones.
+     */
+    private static long destinations(InfluxDbConfig config) {
+        return Fingerprints.strings(
+                Long.toString(HttpLineProtocolSink.destination(config)),
+                config.writeToFile() ? "file" : null,
+                config.writeToLocalStore() ? "local store" : null,
+                config.writeUdp() ? config.getUdpHost() + ":" + config.getUdpPort() : null,
+                config.writeOtlp() ? config.getOtlpEndpoint() : null);
+    }
 
-    private synchronized Optional<InfluxDB> getInflux() {
-        if (StringUtils.isEmpty(config.getDatabase())) {
-            return Optional.empty();
+    /**
+     * Loads the values last written in previous sessions, so unchanged series aren't written again.  Must be called
+     * before any measurements are submitted.  The values are discarded if they were written somewhere else.
+     */
+    public void loadFingerprints(File file) {
+        destinations = destinations(config.get());
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FINGERPRINT_FILE_MAGIC || in.readInt() != FINGERPRINT_FILE_VERSION) {
+                log.warn("Ignoring unrecognized fingerprint file {}", file);
+                return;
+            }
+            if (in.readLong() != destinations) {
+                log.debug("Ignoring fingerprints of values written to other destinations");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                restoredFingerprints.put(in.readLong(),
+                        new ValueFingerprint(in.readLong(), in.readLong(), in.readInt(), in.readLong()));
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to load fingerprints from {}", file, ex);
         }
+    }
 
-        String newServerUrl = config.getServerUrl();
-        String newServerUser = config.getServerUsername();
-        String newServerPass = config.getServerPassword();
+    /**
+     * Saves the values last written to each deduplicated series, including those restored and not written since.
+     */
+    public void saveFingerprints(File file) {
+        Map<Long, ValueFingerprint> fingerprints = new HashMap<>(restoredFingerprints);
+        writers.values().forEach(writer -> writer.saveFingerprint(fingerprints));
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Files.createDirectories(file.toPath().getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(FINGERPRINT_FILE_MAGIC);
+                out.writeInt(FINGERPRINT_FILE_VERSION);
+                out.writeLong(destinations);
+                out.writeInt(fingerprints.size());
+                for (Map.Entry<Long, ValueFingerprint> entry : fingerprints.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    out.writeLong(entry.getValue().getFingerprint());
+                    out.writeLong(entry.getValue().getCheck());
+                    out.writeInt(entry.getValue().getFieldCount());
+                    out.writeLong(entry.getValue().getTime());
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            log.warn("Failed to save fingerprints to {}", file, ex);
+        }
+    }
 
-        if (!Objects.equals(newServerUrl, serverUrl)
-                || !Objects.equals(newServerUser, serverUser)
-                || !Objects.equals(newServerPass, serverPass)
-                || cachedServer == null) {
-            if (cachedServer != null) {
-                cachedServer.close();
-                cachedServer = null;
-                serverUrl = null;
-                serverUser = null;
-                serverPass = null;
+    /**
+     * Drains every writer into a batch and hands it to each enabled sink.  Sinks write on their own threads, so this
+     * never waits for a slow or failing one.  When uploads are shared, this either hands the batch to the aggregating
+     * client, or is the aggregator and uploads the lines forwarded by the others along with its own.
+     */
+    public synchronized void flush() {
+        InfluxDbConfig config = this.config.get();
+        if (config.serveMetrics()) {
+            try {
+                scrapeEndpoint.start(config.metricsPort());
+            } catch (IOException ex) {
+                log.warn("Failed to serve metrics on port {}", config.metricsPort(), ex);
+            }
+        } else {
+            scrapeEndpoint.close();
+        }
+        boolean forwarding = false;
+        if (config.shareUploads() && HttpLineProtocolSink.hasServers(config)) {
+            if (aggregator.elect(config.aggregatorPort(), HttpLineProtocolSink.destination(config))) {
+                misrouted = false;
+            } else {
+                forwarding = !misrouted;
             }
+        } else {
+            // a client without servers would accept lines it can't upload
+            aggregator.close();
+            misrouted = false;
+        }
+        updateSinks(config, forwarding);
+        long destinations = destinations(config);
+        if (destinations != this.destinations) {
+            // a new destination has none of the values, so everything is written again
+            this.destinations = destinations;
+            restoredFingerprints.clear();
+            writers.values().forEach(Writer::forget);
+        }
+        aggregator.drain().forEach((precision, lines) -> heldLines.merge(precision, lines, InfluxWriter::concat));
+        Map<TimestampPrecision, List<String>> forwarded = new EnumMap<>(TimestampPrecision.class);
+        if (!uploads.isEmpty()) {
+            forwarded.putAll(heldLines);
+            heldLines.clear();
+        }
+        if (runners.isEmpty()) {
+            // the scrape endpoint reads the latest values directly, so there's nothing to drain to
+            return;
+        }
 
-            if (!StringUtils.isEmpty(serverUrl)) {
-                if (StringUtils.isEmpty(serverPass) || StringUtils.isEmpty(serverUser)) {
-                    cachedServer = InfluxDBFactory.connect(serverUrl);
-                } else {
-                    cachedServer = InfluxDBFactory.connect(serverUrl, serverUser, serverPass);
+        List<Measurement> measurements = new ArrayList<>();
+        Set<Measurement> sums = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<Writer, ValueFingerprint> drained = new IdentityHashMap<>();
+        writers.forEach((k, v) -> {
+            ValueFingerprint values = v.flush((m, sum) -> {
+                measurements.add(m);
+                if (sum) {
+                    sums.add(m);
                 }
+            });
+            if (values != null) {
+                drained.put(v, values);
             }
-            serverUrl = newServerUrl;
-            serverUser = newServerUser;
-            serverPass = newServerPass;
+        });
+        if (measurements.isEmpty() && forwarded.isEmpty()) {
+            return;
+        }
+        Delivery delivery = new Delivery(written -> drained.forEach((writer, values) -> writer.delivered(values, written)));
+        Batch batch = new Batch(measurements, sums, config.timestampPrecision(), delivery);
+        if (log.isDebugEnabled()) {
+            log.debug("Writing {}", batch.getBody());
         }
-        return Optional.ofNullable(cachedServer);
+        Batch upload = batch.withLines(forwarded.getOrDefault(batch.getPrecision(), Collections.emptyList()));
+        runners.forEach((name, runner) -> {
+            Batch output = uploads.contains(name) ? upload : batch;
+            if (!output.getMeasurements().isEmpty() || !output.getLines().isEmpty()) {
+                runner.offer(output);
+            }
+        });
+        // clients forwarding in a different precision are uploaded separately
+        forwarded.forEach((precision, lines) -> {
+            if (precision != batch.getPrecision()) {
+                Batch other = Batch.ofLines(lines, precision);
+                uploads.forEach(name -> runners.get(name).offer(other));
+            }
+        });
+        delivery.release();
     }
 
-    private Writer writer(Series s) {
-        return writers.computeIfAbsent(s, series -> {
-            switch (series.getMeasurement()) {
-                case MeasurementCreator.SERIES_SELF_LOC:
-                    return new Writer(new ThrottledWriter(), SELF_DEDUPE);
-                case MeasurementCreator.SERIES_ACTIVITY:
-                case MeasurementCreator.SERIES_LOOT:
-                    return new Writer(new AlwaysWriter(), (a, b) -> true);
-                case MeasurementCreator.SERIES_SKILLING_ITEMS:
-                    return new Writer(new SummingWriter(false), (a, b) -> true);
+    private void updateSinks(InfluxDbConfig config, boolean forwarding) {
+        Set<String> enabled = new HashSet<>();
+        Set<String> previousUploads = new HashSet<>(uploads);
+        uploads.clear();
+        if (forwarding) {
+            enableSink(enabled, "aggregator", true, () -> new ForwardingSink(() -> misrouted = true));
+        } else {
+            enableSink(enabled, "server", HttpLineProtocolSink.isConfigured(config),
+                    () -> new HttpLineProtocolSink(httpClient, null));
+            for (String writeUrl : HttpLineProtocolSink.additionalServers(config)) {
+                // keyed by the complete URL so changing it replaces the runner, but named without its credentials
+                enableSink(enabled, "server " + writeUrl, "server " + HttpLineProtocolSink.describe(writeUrl), true,
+                        () -> new HttpLineProtocolSink(httpClient, writeUrl));
+            }
+        }
+        uploads.addAll(enabled);
+        enableSink(enabled, "file", config.writeToFile(), () -> new LineProtocolFileSink(LINE_PROTOCOL_DIR));
+        enableSink(enabled, "local store", config.writeToLocalStore(), () -> {
+            localStore = new LocalStore(LOCAL_STORE_DIR);
+            return localStore;
+        });
+        if (!enabled.contains("local store")) {
+            localStore = null;
+        }
+        enableSink(enabled, "udp", config.writeUdp(), UdpLineProtocolSink::new);
+        enableSink(enabled, "otlp", config.writeOtlp(), () -> new OtlpMetricsSink(httpClient));
+
+        Set<Batch> unuploaded = Collections.newSetFromMap(new IdentityHashMap<>());
+        runners.entrySet().removeIf(entry -> {
+            if (enabled.contains(entry.getKey())) {
+                return false;
             }
-            return new Writer(new ThrottledWriter(), FULL_DEDUPE);
+            List<Batch> left = entry.getValue().close();
+            if (previousUploads.contains(entry.getKey())) {
+                unuploaded.addAll(left);
+            }
+            closing.put(entry.getKey(), entry.getValue());
+            return true;
         });
+        // such as when switching between forwarding and uploading, which shouldn't lose what's queued
+        for (Batch batch : unuploaded) {
+            heldLines.merge(batch.getPrecision(), batch.getLines(), InfluxWriter::concat);
+            batch.getDelivery().dropped();
+        }
+        closing.values().removeIf(SinkRunner::isTerminated);
     }
 
-    public synchronized void flush() {
-        Optional<InfluxDB> influx = getInflux();
-        if (influx.isEmpty()) {
+    private void enableSink(Set<String> enabled, String name, boolean enable, Supplier<Sink> sink) {
+        enableSink(enabled, name, name, enable, sink);
+    }
+
+    private void enableSink(Set<String> enabled, String key, String name, boolean enable, Supplier<Sink> sink) {
+        if (!enable) {
+            return;
+        }
+        if (!runners.containsKey(key)) {
+            SinkRunner previous = closing.get(key);
+            if (previous != null && !previous.awaitTermination(System.nanoTime() + REPLACE_TIMEOUT_NANOS)) {
+                // tried again at the next flush
+                return;
+            }
+            closing.remove(key);
+            runners.put(key, new SinkRunner(name, sink.get(), config::get));
+        }
+        enabled.add(key);
+    }
+
+    private static List<String> concat(List<String> a, List<String> b) {
+        List<String> merged = new ArrayList<>(a.size() + b.size());
+        merged.addAll(a);
+        merged.addAll(b);
+        return merged;
+    }
+
+    private static final int PENDING_FILE_MAGIC = 0x49445050;
+    private static final int PENDING_FILE_VERSION = 1;
+
+    /**
+     * Loads the lines a previous session couldn't upload before shutting down, to upload with the next flush.  The
+     * file is deleted once loaded.
+     */
+    public synchronized void loadPending(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != PENDING_FILE_MAGIC || in.readInt() != PENDING_FILE_VERSION) {
+                log.warn("Ignoring unrecognized pending points file {}", file);
+                return;
+            }
+            int groups = in.readInt();
+            for (int i = 0; i < groups; i++) {
+                TimestampPrecision precision = TimestampPrecision.valueOf(in.readUTF());
+                int count = in.readInt();
+                List<String> lines = heldLines.computeIfAbsent(precision, k -> new ArrayList<>(count));
+                for (int j = 0; j < count; j++) {
+                    byte[] line = new byte[in.readInt()];
+                    in.readFully(line);
+                    lines.add(new String(line, StandardCharsets.UTF_8));
+                }
+            }
+            log.info("Restored {} points from the previous session", heldLines.values().stream().mapToInt(List::size).sum());
+        } catch (IOException | IllegalArgumentException ex) {
+            log.warn("Failed to load pending points from {}", file, ex);
+        }
+        if (!file.delete()) {
+            log.warn("Failed to delete {}", file);
+        }
+    }
+
+    private static void savePending(File file, Map<TimestampPrecision, List<String>> pending) {
+        if (pending.isEmpty()) {
             return;
         }
-        BatchPoints.Builder batch = BatchPoints.database(config.getDatabase())
-                .retentionPolicy(config.getServerRetentionPolicy())
-                .consistency(InfluxDB.ConsistencyLevel.ONE);
-        writers.forEach((k, v) -> v.flush(batch));
-
-        influx.ifPresent(influxDB -> {
-            BatchPoints built = batch.build();
-            if (!built.getPoints().isEmpty()) {
-                influxDB.write(built);
-                if (log.isDebugEnabled()) {
-                    log.debug("Writing {}", built.lineProtocol());
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Files.createDirectories(file.toPath().getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(PENDING_FILE_MAGIC);
+                out.writeInt(PENDING_FILE_VERSION);
+                out.writeInt(pending.size());
+                for (Map.Entry<TimestampPrecision, List<String>> entry : pending.entrySet()) {
+                    out.writeUTF(entry.getKey().name());
+                    out.writeInt(entry.getValue().size());
+                    for (String line : entry.getValue()) {
+                        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
                 }
             }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log.info("Saved {} unwritten points for the next session", pending.values().stream().mapToInt(List::size).sum());
+        } catch (IOException ex) {
+            log.warn("Failed to save pending points to {}", file, ex);
+        }
+    }
+
+    /**
+     * Flushes one last time and waits for the sinks to write everything, but no later than the deadline.  Whatever the
+     * uploading sinks haven't written by then, along with lines forwarded by other clients or restored and not yet
+     * uploaded, is saved to the file for {@link #loadPending(File)}.  Then every sink is closed as by {@link #close()},
+     * waiting for them to finish closing until the deadline.
+     *
+     * @param deadline {@link System#nanoTime()} to stop waiting at
+     */
+    public void shutdown(File pendingFile, long deadline) {
+        List<SinkRunner> active;
+        List<SinkRunner> stopping;
+        synchronized (this) {
+            flush();
+            active = new ArrayList<>(runners.values());
+        }
+        // waiting on the runners without holding the lock, so they can finish
+        for (SinkRunner runner : active) {
+            runner.awaitIdle(deadline);
+        }
+
+        synchronized (this) {
+            Map<TimestampPrecision, List<String>> pending = new EnumMap<>(heldLines);
+            heldLines.clear();
+            // stop accepting forwarded lines before taking them, so none are acknowledged and then lost
+            aggregator.close();
+            aggregator.drain().forEach((precision, lines) -> pending.merge(precision, lines, InfluxWriter::concat));
+            Set<Batch> unwritten = Collections.newSetFromMap(new IdentityHashMap<>());
+            runners.forEach((name, runner) -> {
+                List<Batch> left = runner.close();
+                if (uploads.contains(name)) {
+                    unwritten.addAll(left);
+                } else if (!left.isEmpty()) {
+                    log.warn("Discarding {} batches {} didn't write before shutting down", left.size(), name);
+                }
+            });
+            stopping = new ArrayList<>(runners.values());
+            stopping.addAll(closing.values());
+            runners.clear();
+            closing.clear();
+            // a batch queued for several servers is saved once, and rewriting a point a server already has is harmless
+            for (Batch batch : unwritten) {
+                pending.merge(batch.getPrecision(), batch.getLines(), InfluxWriter::concat);
+            }
+            savePending(pendingFile, pending);
+            close();
+        }
+        // sinks close on their runner's thread after any write in progress, which seals the local store's open chunks
+        // and finishes the line protocol file
+        for (SinkRunner runner : stopping) {
+            runner.awaitTermination(deadline);
+        }
+    }
+
+    /**
+     * Reads the points of a series kept in the local store between {@code from} and {@code to} inclusive, in the
+     * order they were written.  Reads nothing while the local store isn't enabled.
+     */
+    public void queryLocal(Series series, long from, long to, Consumer<Measurement> output) {
+        LocalStore store = localStore;
+        if (store != null) {
+            store.scan(series, from, to, output);
+        }
+    }
+
+    /**
+     * Describes the queue and failures of each enabled sink.
+     */
+    public synchronized String sinkHealth() {
+        return runners.values().stream().map(SinkRunner::health).collect(Collectors.joining("; "));
+    }
+
+    /**
+     * Stops every sink, discarding anything they haven't written, and closes the scrape endpoint and any shared
+     * aggregator.
+     */
+    public synchronized void close() {
+        aggregator.close();
+        runners.forEach((name, runner) -> {
+            runner.close();
+            closing.put(name, runner);
         });
+        runners.clear();
+        uploads.clear();
+        localStore = null;
+        scrapeEndpoint.close();
+    }
+
+    /**
+     * Identifies the values of a measurement by two independent 64-bit hashes and the field count, so a collision is
+     * too unlikely to suppress a change, without retaining the values themselves.  Also records when they were
+     * measured, so unchanged values are written again after the keep-alive.
+     */
+    @Value
+    private static class ValueFingerprint {
+        long fingerprint;
+        long check;
+        int fieldCount;
+        long time;
+
+        static ValueFingerprint of(Measurement m) {
+            return new ValueFingerprint(m.getValueFingerprint(), m.getValueCheck(), m.getFieldCount(), m.getTime());
+        }
+
+        boolean matches(Measurement m, long keepAliveMillis) {
+            return fingerprint == m.getValueFingerprint() && check == m.getValueCheck()
+                    && fieldCount == m.getFieldCount() && m.getTime() - time < keepAliveMillis;
+        }
     }
 
     private static class Writer {
         private final TerminalOp terminal;
-        private final FilterOp[] filters;
-
-        private Writer(TerminalOp terminal, FilterOp... filters) {
+        private final boolean deduplicate;
+        @Nullable
+        private final FilterOp filter;
+
+        /**
+         * Values most recently accepted for writing, whether or not they have been flushed yet.
+         */
+        private ValueFingerprint accepted;
+        /**
+         * Most recently accepted measurement, only retained for the filter.
+         */
+        private Measurement lastAccepted;
+        /**
+         * Values most recently written by every sink, which are the ones persisted between sessions.
+         */
+        private ValueFingerprint written;
+
+        private boolean persistent;
+        private long seriesFingerprint;
+        /**
+         * When the values were last forgotten, before which deliveries were to other destinations.
+         */
+        private long forgottenAt;
+        private final LongSupplier keepAliveMillis;
+
+        /**
+         * Whether to keep the latest submitted measurement, for series that are current values rather than events.
+         */
+        private final BooleanSupplier retainLatest;
+        private volatile Measurement latest;
+
+        private Writer(TerminalOp terminal, boolean deduplicate, @Nullable FilterOp filter, BooleanSupplier retainLatest,
+                       LongSupplier keepAliveMillis) {
             this.terminal = terminal;
-            this.filters = filters;
+            this.deduplicate = deduplicate;
+            this.filter = filter;
+            this.retainLatest = retainLatest;
+            this.keepAliveMillis = keepAliveMillis;
+        }
+
+        static Writer unfiltered(TerminalOp terminal) {
+            return new Writer(terminal, false, null, () -> false, () -> 0);
+        }
+
+        static Writer deduplicated(TerminalOp terminal, BooleanSupplier retainLatest, LongSupplier keepAliveMillis) {
+            return new Writer(terminal, true, null, retainLatest, keepAliveMillis);
+        }
+
+        static Writer filtered(TerminalOp terminal, FilterOp filter, BooleanSupplier retainLatest) {
+            return new Writer(terminal, false, filter, retainLatest, () -> 0);
+        }
+
+        /**
+         * Latest value submitted to the series, whether or not it needed writing.
+         */
+        @Nullable
+        Measurement getLatest() {
+            return latest;
         }
 
         boolean isBlocked() {
             return terminal.isBlocked();
         }
 
+        /**
+         * Treats the values written in a previous session as already written, so unchanged values aren't written
+         * again.
+         */
+        synchronized void persist(long seriesFingerprint, Map<Long, ValueFingerprint> restoredFingerprints) {
+            this.persistent = true;
+            this.seriesFingerprint = seriesFingerprint;
+            this.accepted = restoredFingerprints.get(seriesFingerprint);
+        }
+
+        /**
+         * Forgets the values written so far, so they're written again to new destinations.
+         */
+        synchronized void forget() {
+            forgottenAt = System.currentTimeMillis();
+            accepted = null;
+            written = null;
+        }
+
+        synchronized void saveFingerprint(Map<Long, ValueFingerprint> output) {
+            if (persistent && written != null) {
+                output.put(seriesFingerprint, written);
+            }
+        }
+
         synchronized void submit(Measurement m) {
-            Measurement prev = terminal.getLastWritten();
-            for (FilterOp e : filters) {
-                if (!e.shouldWrite(prev, m)) {
+            latest = retainLatest.getAsBoolean() ? m : null;
+            if (deduplicate && accepted != null && accepted.matches(m, keepAliveMillis.getAsLong())) {
+                return;
+            }
+            if (filter != null) {
+                if (!filter.shouldWrite(lastAccepted, m)) {
                     return;
                 }
+                lastAccepted = m;
+            }
+            if (deduplicate) {
+                accepted = ValueFingerprint.of(m);
             }
             terminal.submit(m);
         }
 
-        synchronized void flush(BatchPoints.Builder output) {
+        /**
+         * @return the deduplicated values drained, to pass to {@link #delivered} once the batch is reported, or null
+         */
+        @Nullable
+        synchronized ValueFingerprint flush(DrainOutput output) {
+            boolean pending = deduplicate && terminal.isBlocked();
             terminal.flush(output);
+            return pending ? accepted : null;
+        }
+
+        /**
+         * Records that drained values were written by every sink, or forgets that they were accepted if any sink
+         * dropped them, so they're written again when next submitted.
+         */
+        synchronized void delivered(ValueFingerprint values, boolean written) {
+            if (values.getTime() < forgottenAt) {
+                return;
+            }
+            if (written) {
+                this.written = values;
+            } else if (accepted == values) {
+                accepted = this.written;
+            }
         }
     }
 
     private interface TerminalOp {
-        Measurement getLastWritten();
-
         boolean isBlocked();
 
         void submit(Measurement m);
 
-        void flush(BatchPoints.Builder output);
+        void flush(DrainOutput output);
+    }
+
+    private interface DrainOutput {
+        /**
+         * Receives a drained measurement, and whether it is a sum over the flush interval rather than a sample.
+         */
+        void accept(Measurement measurement, boolean sum);
     }
 
     private interface FilterOp {
-        boolean shouldWrite(Measurement lastWritten, Measurement measurement);
+        boolean shouldWrite(@Nullable Measurement lastAccepted, Measurement measurement);
     }
 
     private static class ThrottledWriter implements TerminalOp {
-        @Getter
-        private volatile Measurement lastWritten;
         private final AtomicReference<Measurement> waitingForWrite = new AtomicReference<>();
 
         @Override
@@ -173,22 +719,17 @@ public class InfluxWriter {
         }
 
         @Override
-        public void flush(BatchPoints.Builder output) {
+        public void flush(DrainOutput output) {
             Measurement flush = waitingForWrite.getAndSet(null);
-            lastWritten = flush;
-            if (flush != null)
-                flush.toInflux().ifPresent(output::point);
+            if (flush != null) {
+                output.accept(flush, false);
+            }
         }
     }
 
     private static class AlwaysWriter implements TerminalOp {
         private final ArrayDeque<Measurement> queued = new ArrayDeque<>();
 
-        @Override
-        public synchronized Measurement getLastWritten() {
-            return queued.isEmpty() ? null : queued.peekLast();
-        }
-
         @Override
         public boolean isBlocked() {
             return false;
@@ -200,25 +741,69 @@ public class InfluxWriter {
         }
 
         @Override
-        public synchronized void flush(BatchPoints.Builder output) {
+        public synchronized void flush(DrainOutput output) {
             while (!queued.isEmpty()) {
-                queued.removeFirst().toInflux().ifPresent(output::point);
+                output.accept(queued.removeFirst(), false);
             }
         }
     }
 
-    private static final class SummingWriter implements TerminalOp {
-        private final boolean floatingPoint;
-        private Series series;
-        private final Map<String, Number> values = new HashMap<>();
+    /**
+     * Routes submissions to one of two terminals depending on a setting, so the setting can change without
+     * recreating writers or losing anything already queued.
+     */
+    private static final class SwitchingWriter implements TerminalOp {
+        private final BooleanSupplier useFirst;
+        private final TerminalOp first;
+        private final TerminalOp second;
+
+        private SwitchingWriter(BooleanSupplier useFirst, TerminalOp first, TerminalOp second) {
+            this.useFirst = useFirst;
+            this.first = first;
+            this.second = second;
+        }
 
-        public SummingWriter(boolean floatingPoint) {
-            this.floatingPoint = floatingPoint;
+        private TerminalOp active() {
+            return useFirst.getAsBoolean() ? first : second;
         }
 
         @Override
-        public Measurement getLastWritten() {
-            return null;
+        public boolean isBlocked() {
+            return active().isBlocked();
+        }
+
+        @Override
+        public void submit(Measurement m) {
+            active().submit(m);
+        }
+
+        @Override
+        public void flush(DrainOutput output) {
+            first.flush(output);
+            second.flush(output);
+        }
+    }
+
+    /**
+     * Sums every submitted measurement into a single point per flush.  Each field is assigned a slot in a table of
+     * primitive accumulators, and keeps its type: integral fields are summed as longs and floating point fields as
+     * doubles (an integral field is promoted if a floating point value is ever submitted for it).  Fields whose type is
+     * fixed as integral on the server are still summed as doubles, but written rounded to a long, since writing a
+     * float to an existing integer field is rejected.
+     */
+    private static final class SummingWriter implements TerminalOp {
+        private final Set<String> integralFields;
+        private Series series;
+        private final Map<String, Integer> fieldSlots = new HashMap<>();
+        private String[] fields = new String[8];
+        private boolean[] floatingPoint = new boolean[8];
+        private boolean[] present = new boolean[8];
+        private long[] longValues = new long[8];
+        private double[] doubleValues = new double[8];
+        private boolean empty = true;
+
+        private SummingWriter(Set<String> integralFields) {
+            this.integralFields = integralFields;
         }
 
         @Override
@@ -233,30 +818,68 @@ public class InfluxWriter {
             }
             Preconditions.checkArgument(m.getStringValues().isEmpty(), "Summing writer doesn't support string values");
             for (Map.Entry<String, Number> entry : m.getNumericValues().entrySet()) {
-                Number existing = values.get(entry.getKey());
-                Number output;
-                if (floatingPoint) {
-                    output = (existing != null ? existing.doubleValue() : 0) + entry.getValue().doubleValue();
+                Number value = entry.getValue();
+                boolean isFloatingPoint = value instanceof Double || value instanceof Float;
+                int slot = slot(entry.getKey(), isFloatingPoint);
+                if (floatingPoint[slot]) {
+                    doubleValues[slot] += value.doubleValue();
                 } else {
-                    output = (existing != null ? existing.longValue() : 0) + entry.getValue().longValue();
+                    longValues[slot] += value.longValue();
                 }
-                values.put(entry.getKey(), output);
+                present[slot] = true;
             }
+            empty = false;
+        }
+
+        private int slot(String field, boolean isFloatingPoint) {
+            Integer slot = fieldSlots.get(field);
+            if (slot == null) {
+                slot = fieldSlots.size();
+                if (slot == fields.length) {
+                    int capacity = fields.length * 2;
+                    fields = Arrays.copyOf(fields, capacity);
+                    floatingPoint = Arrays.copyOf(floatingPoint, capacity);
+                    present = Arrays.copyOf(present, capacity);
+                    longValues = Arrays.copyOf(longValues, capacity);
+                    doubleValues = Arrays.copyOf(doubleValues, capacity);
+                }
+                fields[slot] = field;
+                fieldSlots.put(field, slot);
+            }
+            if (isFloatingPoint && !floatingPoint[slot]) {
+                floatingPoint[slot] = true;
+                doubleValues[slot] = longValues[slot];
+                longValues[slot] = 0;
+            }
+            return slot;
         }
 
         @Override
-        public synchronized void flush(BatchPoints.Builder output) {
-            if (values.isEmpty()) {
+        public synchronized void flush(DrainOutput output) {
+            if (empty) {
                 return;
             }
-            Measurement.builder().series(series).numericValues(values).build().toInflux().ifPresent(output::point);
-            values.clear();
+            Measurement.MeasurementBuilder builder = Measurement.builder().series(series);
+            for (int slot = 0; slot < fieldSlots.size(); slot++) {
+                if (!present[slot]) {
+                    continue;
+                }
+                if (floatingPoint[slot] && integralFields.contains(fields[slot])) {
+                    builder.numericValue(fields[slot], Math.round(doubleValues[slot]));
+                } else if (floatingPoint[slot]) {
+                    builder.numericValue(fields[slot], doubleValues[slot]);
+                } else {
+                    builder.numericValue(fields[slot], longValues[slot]);
+                }
+                present[slot] = false;
+                longValues[slot] = 0;
+                doubleValues[slot] = 0;
+            }
+            output.accept(builder.build(), true);
+            empty = true;
         }
     }
 
-    private static final FilterOp FULL_DEDUPE = (prev, b) -> prev == null || !prev.getNumericValues().equals(b.getNumericValues())
-            || !prev.getStringValues().equals(b.getStringValues());
-
     private static final FilterOp SELF_DEDUPE = (prev, curr) -> {
         if (prev == null)
             return true;
@@ -0,0 +1,93 @@
+package net.machpi.runelite.influxdb.write;
+
+import net.machpi.runelite.influxdb.TimestampPrecision;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes measurements as influx line protocol, with timestamps truncated to the configured precision.
+ */
+final class LineProtocol {
+    private LineProtocol() {
+    }
+
+    /**
+     * Encodes a measurement as a single line, or returns null if it has no fields that can be written.
+     */
+    static String encode(Measurement m, TimestampPrecision precision) {
+        StringBuilder line = new StringBuilder(128);
+        escape(line, m.getSeries().getMeasurement(), false);
+        // influx recommends sorting tags by key, which is also the order it stores them in
+        for (Map.Entry<String, String> tag : new TreeMap<>(m.getSeries().getTags()).entrySet()) {
+            if (tag.getValue().isEmpty()) {
+                continue;
+            }
+            line.append(',');
+            escape(line, tag.getKey(), true);
+            line.append('=');
+            escape(line, tag.getValue(), true);
+        }
+
+        char separator = ' ';
+        for (Map.Entry<String, String> field : m.getStringValues().entrySet()) {
+            line.append(separator);
+            escape(line, field.getKey(), true);
+            line.append("=\"");
+            String value = field.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    line.append('\\');
+                }
+                line.append(c);
+            }
+            line.append('"');
+            separator = ',';
+        }
+        for (Map.Entry<String, Number> field : m.getNumericValues().entrySet()) {
+            Number value = field.getValue();
+            boolean floatingPoint = value instanceof Double || value instanceof Float;
+            if (floatingPoint && !Double.isFinite(value.doubleValue())) {
+                continue;
+            }
+            line.append(separator);
+            escape(line, field.getKey(), true);
+            line.append('=');
+            if (floatingPoint) {
+                appendDouble(line, value.doubleValue());
+            } else {
+                line.append(value.longValue()).append('i');
+            }
+            separator = ',';
+        }
+        if (separator == ' ') {
+            return null;
+        }
+
+        line.append(' ').append(precision.getUnit().convert(m.getTime(), TimeUnit.MILLISECONDS));
+        return line.toString();
+    }
+
+    private static void appendDouble(StringBuilder output, double value) {
+        String formatted = Double.toString(value);
+        // avoid scientific notation, which not every line protocol parser accepts
+        output.append(formatted.indexOf('E') < 0 ? formatted : BigDecimal.valueOf(value).toPlainString());
+    }
+
+    private static void escape(StringBuilder output, String value, boolean escapeEquals) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\n') {
+                // newlines can't be escaped, and would end the line
+                c = ' ';
+            }
+            if (c == ',' || c == ' ' || (escapeEquals && c == '=')) {
+                output.append('\\');
+            }
+            output.append(c);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.machpi.runelite.influxdb.write;
+
+import lombok.extern.slf4j.Slf4j;
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+import net.machpi.runelite.influxdb.TimestampPrecision;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends line protocol to files in a directory, starting a new file when the current one gets too large or too old,
+ * or when the timestamp precision changes.  Files are written in influx's import format, so they can be loaded with
+ * {@code influx -import -path=<file> -precision=<precision>} (adding {@code -compressed} for gzipped files) or with
+ * v2's {@code influx write -f <file> --precision <precision>}, where the precision is the end of the file's name.
+ */
+@Slf4j
+class LineProtocolFileSink implements Sink {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File directory;
+
+    private FileChannel channel;
+    private OutputStream out;
+    private boolean compressed;
+    private TimestampPrecision precision;
+    private long openedAt;
+
+    LineProtocolFileSink(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Writes the batch's lines, which are on disk when this returns.
+     */
+    @Override
+    public synchronized void write(Batch batch, InfluxDbConfig config) throws IOException {
+        long now = System.currentTimeMillis();
+        if (out != null && shouldRotate(batch, config, now)) {
+            close();
+        }
+        if (out == null) {
+            open(batch, config, now);
+        }
+        for (String line : batch.getLines()) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private boolean shouldRotate(Batch batch, InfluxDbConfig config, long now) throws IOException {
+        return compressed != config.fileCompress()
+                || precision != batch.getPrecision()
+                || now - openedAt >= TimeUnit.MINUTES.toMillis(config.fileRotateMinutes())
+                || channel.size() >= config.fileRotateMegabytes() * 1024L * 1024L;
+    }
+
+    private void open(Batch batch, InfluxDbConfig config, long now) throws IOException {
+        compressed = config.fileCompress();
+        precision = batch.getPrecision();
+        String name = "points-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(now))
+                + "-" + precision.getParameter() + (compressed ? ".lp.gz" : ".lp");
+        Files.createDirectories(directory.toPath());
+        File file = new File(directory, name);
+        log.debug("Writing line protocol to {}", file);
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        try {
+            OutputStream raw = Channels.newOutputStream(channel);
+            // sync flushing compresses slightly worse, but keeps every flushed write readable after a crash
+            out = new BufferedOutputStream(compressed ? new GZIPOutputStream(raw, BUFFER_SIZE, true) : raw, BUFFER_SIZE);
+            openedAt = now;
+            out.write(header(config).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    private static String header(InfluxDbConfig config) {
+        StringBuilder header = new StringBuilder("# DML\n");
+        if (!StringUtils.isEmpty(config.getDatabase())) {
+            header.append("# CONTEXT-DATABASE: ").append(config.getDatabase()).append('\n');
+            if (!StringUtils.isEmpty(config.getServerRetentionPolicy())) {
+                header.append("# CONTEXT-RETENTION-POLICY: ").append(config.getServerRetentionPolicy()).append('\n');
+            }
+        }
+        return header.toString();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (out != null) {
+                out.close();
+            } else if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to close line protocol file", ex);
+        }
+        out = null;
+        channel = null;
+    }
+}
@@ -0,0 +1,383 @@
+package net.machpi.runelite.influxdb.write;
+
+import lombok.extern.slf4j.Slf4j;
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Embedded history of written measurements, so data is kept without a server and can be queried locally.
+ *
+ * <p>Points are collected per series into {@link SeriesChunk}s, which are appended to a memory-mapped data file once
+ * they are full, old, or the store is closed.  Series are identified by their position in an append-only index
+ * file.  Open chunks are checkpointed to a separate file after every write, and appended from there when the store
+ * is next opened if the client exited without closing it.</p>
+ */
+@Slf4j
+class LocalStore implements Sink {
+    private static final int DATA_MAGIC = 0x49445453;
+    private static final int DATA_VERSION = 1;
+    private static final int DATA_HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+    private static final int CHECKPOINT_MAGIC = 0x49444350;
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final int CHECKPOINT_HEADER_SIZE = Integer.BYTES * 3 + Long.BYTES;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    private static final int MAX_CHUNK_POINTS = 1024;
+    private static final long MAX_CHUNK_AGE = TimeUnit.HOURS.toMillis(1);
+
+    private final File directory;
+
+    private FileChannel dataChannel;
+    private MappedByteBuffer data;
+    private int end;
+    private DataOutputStream indexOut;
+
+    private final Map<Series, Integer> seriesIds = new HashMap<>();
+    /**
+     * Positions of the sealed chunks of each series, indexed by series id.
+     */
+    private final List<List<Integer>> chunks = new ArrayList<>();
+    private final Map<Integer, SeriesChunk> openChunks = new HashMap<>();
+    /**
+     * Set once the store is closed, so a late scan doesn't open it again.  Only writing or opening it clears this.
+     */
+    private boolean closed;
+
+    LocalStore(File directory) {
+        this.directory = directory;
+    }
+
+    synchronized void open() throws IOException {
+        closed = false;
+        if (data != null) {
+            return;
+        }
+        Files.createDirectories(directory.toPath());
+        try {
+            loadIndex(new File(directory, "series.idx"));
+            loadData(new File(directory, "chunks.dat"));
+            restoreCheckpoint(checkpointFile());
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    private void loadIndex(File file) throws IOException {
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    Series.SeriesBuilder series = Series.builder().measurement(in.readUTF());
+                    int tags = in.readUnsignedShort();
+                    for (int i = 0; i < tags; i++) {
+                        series.tag(in.readUTF(), in.readUTF());
+                    }
+                    seriesIds.put(series.build(), chunks.size());
+                    chunks.add(new ArrayList<>());
+                }
+            } catch (EOFException ex) {
+                // end of the index, possibly after a partial entry from an unclean exit
+            }
+        }
+
+        // rewrite the complete entries so new ones aren't appended after a partial one
+        File tmp = new File(file.getPath() + ".tmp");
+        indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        List<Series> ordered = new ArrayList<>(seriesIds.keySet());
+        ordered.sort((a, b) -> Integer.compare(seriesIds.get(a), seriesIds.get(b)));
+        for (Series series : ordered) {
+            writeIndexEntry(series);
+        }
+        indexOut.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private void writeIndexEntry(Series series) throws IOException {
+        indexOut.writeUTF(series.getMeasurement());
+        indexOut.writeShort(series.getTags().size());
+        for (Map.Entry<String, String> tag : series.getTags().entrySet()) {
+            indexOut.writeUTF(tag.getKey());
+            indexOut.writeUTF(tag.getValue());
+        }
+    }
+
+    private void loadData(File file) throws IOException {
+        dataChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        boolean created = dataChannel.size() == 0;
+        map(Math.max(INITIAL_CAPACITY, dataChannel.size()));
+        if (created || data.getInt(0) != DATA_MAGIC || data.getInt(Integer.BYTES) != DATA_VERSION) {
+            if (!created) {
+                log.warn("Discarding unrecognized local store {}", file);
+            }
+            data.putInt(0, DATA_MAGIC);
+            data.putInt(Integer.BYTES, DATA_VERSION);
+            setEnd(DATA_HEADER_SIZE);
+            return;
+        }
+
+        end = (int) data.getLong(Integer.BYTES * 2);
+        int position = DATA_HEADER_SIZE;
+        while (position < end) {
+            int length = data.getInt(position);
+            if (length < SeriesChunk.HEADER_SIZE || length > end - position) {
+                log.warn("Truncating local store {} at corrupt chunk", file);
+                setEnd(position);
+                break;
+            }
+            int seriesId = data.getInt(position + Integer.BYTES);
+            if (seriesId < chunks.size()) {
+                chunks.get(seriesId).add(position);
+            }
+            position += length;
+        }
+    }
+
+    private File checkpointFile() {
+        return new File(directory, "open.dat");
+    }
+
+    /**
+     * Appends the chunks that were open when the client last exited without closing the store.  They're only
+     * appended if nothing was sealed after the checkpoint was written, since those chunks may hold the same points.
+     */
+    private void restoreCheckpoint(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        ByteBuffer checkpoint = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (checkpoint.remaining() < CHECKPOINT_HEADER_SIZE
+                || checkpoint.getInt() != CHECKPOINT_MAGIC || checkpoint.getInt() != CHECKPOINT_VERSION
+                || checkpoint.getLong() != end) {
+            log.warn("Discarding stale checkpoint of open chunks {}", file);
+        } else {
+            int count = checkpoint.getInt();
+            for (int i = 0; i < count; i++) {
+                int position = checkpoint.position();
+                if (checkpoint.remaining() < SeriesChunk.HEADER_SIZE) {
+                    break;
+                }
+                int length = checkpoint.getInt(position);
+                int seriesId = checkpoint.getInt(position + Integer.BYTES);
+                if (length < SeriesChunk.HEADER_SIZE || length > checkpoint.remaining() || seriesId >= chunks.size()) {
+                    log.warn("Truncating checkpoint of open chunks {} at corrupt chunk", file);
+                    break;
+                }
+                ByteBuffer chunk = checkpoint.slice();
+                chunk.limit(length);
+                appendChunk(seriesId, chunk);
+                checkpoint.position(position + length);
+            }
+            data.force();
+        }
+        Files.delete(file.toPath());
+    }
+
+    private void map(long capacity) throws IOException {
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void setEnd(int end) {
+        this.end = end;
+        data.putLong(Integer.BYTES * 2, end);
+    }
+
+    /**
+     * Adds the batch's measurements, opening the store if needed and sealing any chunks that fill up or get too old.
+     * Only failing to open is thrown, since retrying a partly appended batch would duplicate its points.
+     */
+    @Override
+    public synchronized void write(Batch batch, InfluxDbConfig config) throws IOException {
+        open();
+        try {
+            append(batch.getMeasurements());
+        } catch (IOException ex) {
+            log.warn("Failed to write {} points to the local store", batch.getMeasurements().size(), ex);
+        }
+        try {
+            checkpoint(checkpointFile());
+        } catch (IOException ex) {
+            log.warn("Failed to checkpoint open chunks of the local store", ex);
+        }
+    }
+
+    /**
+     * Saves the open chunks along with the end of the sealed ones, so their points survive the client exiting
+     * without closing the store.
+     */
+    private void checkpoint(File file) throws IOException {
+        if (openChunks.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        int size = CHECKPOINT_HEADER_SIZE;
+        for (SeriesChunk chunk : openChunks.values()) {
+            size += chunk.encodedSize();
+        }
+        ByteBuffer checkpoint = ByteBuffer.allocate(size);
+        checkpoint.putInt(CHECKPOINT_MAGIC);
+        checkpoint.putInt(CHECKPOINT_VERSION);
+        checkpoint.putLong(end);
+        checkpoint.putInt(openChunks.size());
+        for (SeriesChunk chunk : openChunks.values()) {
+            chunk.writeTo(checkpoint);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), checkpoint.array());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void append(List<Measurement> measurements) throws IOException {
+        long now = System.currentTimeMillis();
+        boolean sealed = false;
+        for (Measurement m : measurements) {
+            if (m.getFieldCount() == 0) {
+                continue;
+            }
+            int seriesId = seriesId(m.getSeries());
+            SeriesChunk chunk = openChunks.get(seriesId);
+            if (chunk != null && !chunk.accepts(m)) {
+                seal(seriesId, chunk);
+                sealed = true;
+                chunk = null;
+            }
+            if (chunk == null) {
+                chunk = new SeriesChunk(seriesId, m);
+                openChunks.put(seriesId, chunk);
+            }
+            chunk.add(m);
+        }
+
+        for (Map.Entry<Integer, SeriesChunk> open : new ArrayList<>(openChunks.entrySet())) {
+            SeriesChunk chunk = open.getValue();
+            if (chunk.size() >= MAX_CHUNK_POINTS || now - chunk.getOpenedAt() >= MAX_CHUNK_AGE) {
+                seal(open.getKey(), chunk);
+                sealed = true;
+            }
+        }
+        if (sealed) {
+            data.force();
+        }
+    }
+
+    private int seriesId(Series series) throws IOException {
+        Integer id = seriesIds.get(series);
+        if (id == null) {
+            id = chunks.size();
+            // the index entry has to be on disk before any chunk refers to it
+            writeIndexEntry(series);
+            indexOut.flush();
+            seriesIds.put(series, id);
+            chunks.add(new ArrayList<>());
+        }
+        return id;
+    }
+
+    private void seal(int seriesId, SeriesChunk chunk) throws IOException {
+        openChunks.remove(seriesId);
+        ByteBuffer encoded = ByteBuffer.allocate(chunk.encodedSize());
+        chunk.writeTo(encoded);
+        encoded.flip();
+        appendChunk(seriesId, encoded);
+    }
+
+    private void appendChunk(int seriesId, ByteBuffer chunk) throws IOException {
+        int size = chunk.remaining();
+        if ((long) end + size > Integer.MAX_VALUE) {
+            throw new IOException("Local store is full");
+        }
+        if (end + size > data.capacity()) {
+            map(Math.max((long) data.capacity() * 2, end + size));
+        }
+        data.position(end);
+        data.put(chunk);
+        chunks.get(seriesId).add(end);
+        setEnd(end + size);
+    }
+
+    /**
+     * Reads the points of a series between {@code from} and {@code to} inclusive, in the order they were written,
+     * opening the store if it hasn't been written yet.
+     */
+    synchronized void scan(Series series, long from, long to, Consumer<Measurement> output) {
+        if (data == null && !closed) {
+            try {
+                open();
+            } catch (IOException ex) {
+                log.warn("Failed to open the local store", ex);
+                return;
+            }
+        }
+        Integer seriesId = seriesIds.get(series);
+        if (data == null || seriesId == null) {
+            return;
+        }
+        for (int position : chunks.get(seriesId)) {
+            long firstTime = data.getLong(position + Integer.BYTES * 3);
+            long lastTime = data.getLong(position + Integer.BYTES * 3 + Long.BYTES);
+            if (lastTime >= from && firstTime <= to) {
+                SeriesChunk.read(data, position, series, from, to, output);
+            }
+        }
+        SeriesChunk open = openChunks.get(seriesId);
+        if (open != null) {
+            ByteBuffer buffer = ByteBuffer.allocate(open.encodedSize());
+            open.writeTo(buffer);
+            SeriesChunk.read(buffer, 0, series, from, to, output);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (data != null) {
+                for (Map.Entry<Integer, SeriesChunk> open : new ArrayList<>(openChunks.entrySet())) {
+                    seal(open.getKey(), open.getValue());
+                }
+                data.force();
+                Files.deleteIfExists(checkpointFile().toPath());
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to write open chunks to the local store", ex);
+        }
+        try {
+            if (indexOut != null) {
+                indexOut.close();
+            }
+            if (dataChannel != null) {
+                dataChannel.close();
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to close the local store", ex);
+        }
+        openChunks.clear();
+        seriesIds.clear();
+        chunks.clear();
+        indexOut = null;
+        dataChannel = null;
+        data = null;
+        closed = true;
+    }
+}
@@ -4,37 +4,42 @@ import lombok.Builder;
 import lombok.NonNull;
 import lombok.Singular;
 import lombok.Value;
-import org.influxdb.dto.Point;
 
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.TimeUnit;
 
 @Value
-@Builder
 public class Measurement {
     Series series;
 
-    @Builder.Default
-    long time = System.currentTimeMillis();
-
-    @Singular
-    Map<@NonNull String, @NonNull String> stringValues;
-
-    @Singular
-    Map<@NonNull String, @NonNull Number> numericValues;
-
-    // influx accepts Map<String, Object>, where object is String | Number
-    @SuppressWarnings("unchecked")
-    Optional<Point> toInflux() {
-        if (getStringValues().isEmpty() && getNumericValues().isEmpty()) {
-            return Optional.empty();
-        }
-        return Optional.of(Point.measurement(series.getMeasurement())
-                .tag(series.getTags())
-                .time(time, TimeUnit.MILLISECONDS)
-                .fields((Map) getStringValues())
-                .fields((Map) getNumericValues())
-                .build());
+    long time;
+
+    Map<String, String> stringValues;
+
+    Map<String, Number> numericValues;
+
+    /**
+     * Fingerprint of the string and numeric values, computed once when built so deduplication is a single compare.
+     */
+    long valueFingerprint;
+
+    /**
+     * Second, independent hash of the values, which together with the fingerprint identifies them by 128 bits.
+     */
+    long valueCheck;
+
+    @Builder
+    private Measurement(Series series, Long time,
+                        @Singular Map<@NonNull String, @NonNull String> stringValues,
+                        @Singular Map<@NonNull String, @NonNull Number> numericValues) {
+        this.series = series;
+        this.time = time != null ? time : System.currentTimeMillis();
+        this.stringValues = stringValues;
+        this.numericValues = numericValues;
+        this.valueFingerprint = Fingerprints.values(stringValues, numericValues);
+        this.valueCheck = Fingerprints.valuesCheck(stringValues, numericValues);
+    }
+
+    public int getFieldCount() {
+        return stringValues.size() + numericValues.size();
     }
 }
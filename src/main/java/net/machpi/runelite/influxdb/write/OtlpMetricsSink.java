@@ -0,0 +1,260 @@
+package net.machpi.runelite.influxdb.write;
+
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+import net.machpi.runelite.influxdb.MeasurementCreator;
+import net.machpi.runelite.influxdb.OtlpTemporality;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports measurements to an OpenTelemetry collector as OTLP metrics, in one protobuf request per flush.
+ *
+ * <p>Tags common to every series become resource attributes, and the remaining tags and any string fields become
+ * data point attributes.  Each numeric field is a metric named {@code <measurement>.<field>}: a monotonic sum for
+ * series summed over the flush interval, and a gauge otherwise.  Measurements with only string fields are exported
+ * as a gauge of 1 named after the measurement.</p>
+ *
+ * <p>Summed series that haven't been exported for {@link #IDLE_SERIES_NANOS} are forgotten, so skilling items and
+ * loot sources from earlier in a long session aren't kept forever.  If one is exported again, its running total
+ * starts over with a new start time, which is how OTLP marks a counter reset.</p>
+ */
+class OtlpMetricsSink implements Sink {
+    private static final MediaType PROTOBUF = MediaType.parse("application/x-protobuf");
+    private static final String SCOPE_NAME = "runelite-influxdb";
+
+    // opentelemetry/proto/metrics/v1/metrics.proto field numbers
+    private static final int EXPORT_RESOURCE_METRICS = 1;
+    private static final int RESOURCE_METRICS_RESOURCE = 1;
+    private static final int RESOURCE_METRICS_SCOPE_METRICS = 2;
+    private static final int RESOURCE_ATTRIBUTES = 1;
+    private static final int SCOPE_METRICS_SCOPE = 1;
+    private static final int SCOPE_METRICS_METRICS = 2;
+    private static final int SCOPE_NAME_FIELD = 1;
+    private static final int METRIC_NAME = 1;
+    private static final int METRIC_GAUGE = 5;
+    private static final int METRIC_SUM = 7;
+    private static final int DATA_POINTS = 1;
+    private static final int SUM_TEMPORALITY = 2;
+    private static final int SUM_MONOTONIC = 3;
+    private static final int POINT_START_TIME = 2;
+    private static final int POINT_TIME = 3;
+    private static final int POINT_DOUBLE = 4;
+    private static final int POINT_INT = 6;
+    private static final int POINT_ATTRIBUTES = 7;
+    private static final int KEY_VALUE_KEY = 1;
+    private static final int KEY_VALUE_VALUE = 2;
+    private static final int ANY_VALUE_STRING = 1;
+    private static final int TEMPORALITY_DELTA = 1;
+    private static final int TEMPORALITY_CUMULATIVE = 2;
+
+    private static final long IDLE_SERIES_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private final OkHttpClient httpClient;
+    /**
+     * Start of the first interval exported, in nanoseconds since the epoch.
+     */
+    private final long startNanos;
+
+    private final Map<Series, SummedSeries> summed = new HashMap<>();
+    /**
+     * Time of the latest point exported, where the first interval of a series that is summed from now on starts.
+     */
+    private long intervalEnd;
+
+    OtlpMetricsSink(OkHttpClient httpClient) {
+        this(httpClient, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()));
+    }
+
+    OtlpMetricsSink(OkHttpClient httpClient, long startNanos) {
+        this.httpClient = httpClient;
+        this.startNanos = startNanos;
+        this.intervalEnd = startNanos;
+    }
+
+    /**
+     * The most recently encoded batch, so retrying it doesn't add its sums to the running totals again.
+     */
+    private Batch encodedBatch;
+    private byte[] encodedRequest;
+
+    @Override
+    public synchronized void write(Batch batch, InfluxDbConfig config) throws IOException {
+        HttpUrl endpoint = HttpUrl.parse(config.getOtlpEndpoint());
+        if (endpoint == null) {
+            throw new IOException("Invalid OTLP endpoint " + config.getOtlpEndpoint());
+        }
+        if (encodedBatch != batch) {
+            encodedRequest = encode(batch, config);
+            encodedBatch = batch;
+        }
+        if (encodedRequest.length == 0) {
+            return;
+        }
+
+        HttpUrl url = endpoint.newBuilder().addPathSegments("v1/metrics").build();
+        Request post = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(PROTOBUF, encodedRequest))
+                .build();
+        try (Response response = httpClient.newCall(post).execute()) {
+            if (!response.isSuccessful()) {
+                throw new HttpStatusException(response.code(), "OTLP export failed with HTTP " + response.code());
+            }
+        }
+    }
+
+    byte[] encode(Batch batch, InfluxDbConfig config) {
+        boolean cumulative = config.otlpTemporality() == OtlpTemporality.CUMULATIVE;
+        long latest = intervalEnd;
+
+        Map<Map<String, String>, Map<String, Metric>> resources = new LinkedHashMap<>();
+        for (Measurement m : batch.getMeasurements()) {
+            Map<String, String> resource = new TreeMap<>();
+            ProtobufWriter attributes = new ProtobufWriter();
+            for (Map.Entry<String, String> tag : m.getSeries().getTags().entrySet()) {
+                if (MeasurementCreator.COMMON_TAG_KEYS.contains(tag.getKey())) {
+                    resource.put(tag.getKey(), tag.getValue());
+                } else {
+                    attributes.message(POINT_ATTRIBUTES, keyValue(tag.getKey(), tag.getValue()));
+                }
+            }
+            for (Map.Entry<String, String> field : m.getStringValues().entrySet()) {
+                attributes.message(POINT_ATTRIBUTES, keyValue(field.getKey(), field.getValue()));
+            }
+            Map<String, Metric> metrics = resources.computeIfAbsent(resource, k -> new LinkedHashMap<>());
+
+            String measurement = m.getSeries().getMeasurement();
+            long time = TimeUnit.MILLISECONDS.toNanos(m.getTime());
+            if (m.getNumericValues().isEmpty()) {
+                metrics.computeIfAbsent(measurement, Metric::new)
+                        .add(point(attributes, 0, time, 1L));
+                continue;
+            }
+
+            boolean sum = batch.isSum(m);
+            long start = 0;
+            Map<String, Number> seriesTotals = null;
+            if (sum) {
+                SummedSeries series = summed.computeIfAbsent(m.getSeries(), k -> new SummedSeries(intervalEnd));
+                start = cumulative ? series.start : series.lastExported;
+                seriesTotals = cumulative ? series.totals : null;
+                series.lastExported = time;
+                latest = Math.max(latest, time);
+            }
+            for (Map.Entry<String, Number> field : m.getNumericValues().entrySet()) {
+                Number value = field.getValue();
+                if (seriesTotals != null) {
+                    value = seriesTotals.merge(field.getKey(), value, OtlpMetricsSink::add);
+                }
+                Metric metric = metrics.computeIfAbsent(measurement + "." + field.getKey(), Metric::new);
+                metric.sum = sum;
+                metric.add(point(attributes, start, time, value));
+            }
+        }
+
+        intervalEnd = latest;
+        summed.values().removeIf(series -> intervalEnd - series.lastExported > IDLE_SERIES_NANOS);
+
+        ProtobufWriter request = new ProtobufWriter();
+        for (Map.Entry<Map<String, String>, Map<String, Metric>> resource : resources.entrySet()) {
+            ProtobufWriter resourceAttributes = new ProtobufWriter();
+            resource.getKey().forEach((k, v) -> resourceAttributes.message(RESOURCE_ATTRIBUTES, keyValue(k, v)));
+
+            ProtobufWriter scopeMetrics = new ProtobufWriter()
+                    .message(SCOPE_METRICS_SCOPE, new ProtobufWriter().string(SCOPE_NAME_FIELD, SCOPE_NAME));
+            for (Metric metric : resource.getValue().values()) {
+                scopeMetrics.message(SCOPE_METRICS_METRICS, metric.encode(cumulative));
+            }
+
+            request.message(EXPORT_RESOURCE_METRICS, new ProtobufWriter()
+                    .message(RESOURCE_METRICS_RESOURCE, resourceAttributes)
+                    .message(RESOURCE_METRICS_SCOPE_METRICS, scopeMetrics));
+        }
+        return request.toByteArray();
+    }
+
+    private static Number add(Number a, Number b) {
+        if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+            return a.doubleValue() + b.doubleValue();
+        }
+        return a.longValue() + b.longValue();
+    }
+
+    private static ProtobufWriter keyValue(String key, String value) {
+        return new ProtobufWriter()
+                .string(KEY_VALUE_KEY, key)
+                .message(KEY_VALUE_VALUE, new ProtobufWriter().string(ANY_VALUE_STRING, value));
+    }
+
+    private static ProtobufWriter point(ProtobufWriter attributes, long start, long time, Number value) {
+        ProtobufWriter point = new ProtobufWriter();
+        if (start != 0) {
+            point.fixed64(POINT_START_TIME, start);
+        }
+        point.fixed64(POINT_TIME, time);
+        if (value instanceof Double || value instanceof Float) {
+            point.doubleValue(POINT_DOUBLE, value.doubleValue());
+        } else {
+            point.fixed64(POINT_INT, value.longValue());
+        }
+        if (attributes.size() > 0) {
+            // attributes are a repeated field, so their encoded entries can be appended as they are
+            point.append(attributes);
+        }
+        return point;
+    }
+
+    private static final class SummedSeries {
+        /**
+         * Start of the running total, for cumulative temporality.
+         */
+        private final long start;
+        private final Map<String, Number> totals = new HashMap<>();
+        /**
+         * End of the interval last exported, which is where the next one starts for delta temporality.
+         */
+        private long lastExported;
+
+        private SummedSeries(long start) {
+            this.start = start;
+            this.lastExported = start;
+        }
+    }
+
+    private static final class Metric {
+        private final String name;
+        private final ProtobufWriter points = new ProtobufWriter();
+        private boolean sum;
+
+        private Metric(String name) {
+            this.name = name;
+        }
+
+        void add(ProtobufWriter point) {
+            points.message(DATA_POINTS, point);
+        }
+
+        ProtobufWriter encode(boolean cumulative) {
+            ProtobufWriter metric = new ProtobufWriter().string(METRIC_NAME, name);
+            if (sum) {
+                points.varint(SUM_TEMPORALITY, cumulative ? TEMPORALITY_CUMULATIVE : TEMPORALITY_DELTA)
+                        .bool(SUM_MONOTONIC, true);
+                metric.message(METRIC_SUM, points);
+            } else {
+                metric.message(METRIC_GAUGE, points);
+            }
+            return metric;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package net.machpi.runelite.influxdb.write;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal protocol buffers encoder, for the handful of messages the plugin sends.  Nested messages are encoded
+ * into their own writer and then copied into their parent as length-delimited fields.
+ */
+final class ProtobufWriter {
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private byte[] buffer = new byte[64];
+    private int size;
+
+    ProtobufWriter varint(int field, long value) {
+        tag(field, WIRE_VARINT);
+        rawVarint(value);
+        return this;
+    }
+
+    ProtobufWriter bool(int field, boolean value) {
+        return varint(field, value ? 1 : 0);
+    }
+
+    ProtobufWriter fixed64(int field, long value) {
+        tag(field, WIRE_FIXED64);
+        ensure(Long.BYTES);
+        for (int i = 0; i < Long.BYTES; i++) {
+            buffer[size++] = (byte) (value >>> (i * 8));
+        }
+        return this;
+    }
+
+    ProtobufWriter doubleValue(int field, double value) {
+        return fixed64(field, Double.doubleToRawLongBits(value));
+    }
+
+    ProtobufWriter string(int field, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes(field, bytes, bytes.length);
+    }
+
+    ProtobufWriter message(int field, ProtobufWriter message) {
+        return bytes(field, message.buffer, message.size);
+    }
+
+    /**
+     * Appends fields already encoded by another writer.
+     */
+    ProtobufWriter append(ProtobufWriter fields) {
+        ensure(fields.size);
+        System.arraycopy(fields.buffer, 0, buffer, size, fields.size);
+        size += fields.size;
+        return this;
+    }
+
+    private ProtobufWriter bytes(int field, byte[] bytes, int length) {
+        tag(field, WIRE_LENGTH_DELIMITED);
+        rawVarint(length);
+        ensure(length);
+        System.arraycopy(bytes, 0, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    private void tag(int field, int wireType) {
+        rawVarint(((long) field << 3) | wireType);
+    }
+
+    private void rawVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    private void ensure(int bytes) {
+        if (size + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+}
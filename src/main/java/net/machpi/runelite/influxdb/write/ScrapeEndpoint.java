@@ -0,0 +1,228 @@
+package net.machpi.runelite.influxdb.write;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Serves the latest value of every gauge-like series on localhost in the Prometheus text exposition format, so a
+ * scraper can collect current values without every change being pushed.
+ *
+ * <p>This is a minimal HTTP/1.0 responder on a single daemon thread: each connection gets one response and is closed.
+ * The response is encoded into buffers that are reused between scrapes.  The buffers belong to the serving thread, so
+ * a thread still finishing a response after the endpoint restarts doesn't share them with the new one.</p>
+ */
+@Slf4j
+class ScrapeEndpoint implements Closeable {
+    private static final int READ_TIMEOUT_MILLIS = 2000;
+    private static final byte[] NOT_FOUND = ("HTTP/1.0 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final Consumer<Consumer<Measurement>> source;
+
+    private ServerSocketChannel server;
+    private int port;
+
+    /**
+     * @param source supplies the latest measurement of each series to the given consumer
+     */
+    ScrapeEndpoint(Consumer<Consumer<Measurement>> source) {
+        this.source = source;
+    }
+
+    /**
+     * Starts serving on the port, restarting if it was serving on a different one.
+     */
+    synchronized void start(int port) throws IOException {
+        if (server != null && this.port == port) {
+            return;
+        }
+        close();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException ex) {
+            server.close();
+            throw ex;
+        }
+        this.server = server;
+        this.port = port;
+        Thread thread = new Thread(() -> new Responder().serve(server), "influxdb-scrape");
+        thread.setDaemon(true);
+        thread.start();
+        log.debug("Serving metrics on port {}", port);
+    }
+
+    /**
+     * Serves connections with its own reusable buffers.
+     */
+    private final class Responder {
+        private final StringBuilder text = new StringBuilder();
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer request = ByteBuffer.allocate(4096);
+        private ByteBuffer response = ByteBuffer.allocateDirect(1 << 16);
+
+        private void serve(ServerSocketChannel server) {
+            while (server.isOpen()) {
+                try (SocketChannel client = server.accept()) {
+                    client.socket().setSoTimeout(READ_TIMEOUT_MILLIS);
+                    respond(client);
+                } catch (SocketTimeoutException ex) {
+                    log.debug("Timed out reading scrape request");
+                } catch (IOException ex) {
+                    if (server.isOpen()) {
+                        log.debug("Failed to serve scrape request", ex);
+                    }
+                }
+            }
+        }
+
+        private void respond(SocketChannel client) throws IOException {
+            request.clear();
+            // the request line is all that matters, so read until the end of the headers or a full buffer
+            InputStream in = client.socket().getInputStream();
+            while (request.hasRemaining() && !endOfHeaders()) {
+                int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                request.put((byte) b);
+            }
+            String requestLine = readRequestLine();
+            if (!requestLine.startsWith("GET /metrics ") && !requestLine.startsWith("GET / ")) {
+                client.write(ByteBuffer.wrap(NOT_FOUND));
+                return;
+            }
+
+            ByteBuffer body = encode();
+            String headers = "HTTP/1.0 200 OK\r\n"
+                    + "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+                    + "Content-Length: " + body.remaining() + "\r\n"
+                    + "Connection: close\r\n\r\n";
+            ByteBuffer[] buffers = {ByteBuffer.wrap(headers.getBytes(StandardCharsets.US_ASCII)), body};
+            // the body is empty when nothing has been measured yet, and the headers still have to be sent
+            while (buffers[0].hasRemaining() || body.hasRemaining()) {
+                client.write(buffers);
+            }
+        }
+
+        private boolean endOfHeaders() {
+            int end = request.position();
+            return end >= 4 && request.get(end - 4) == '\r' && request.get(end - 3) == '\n'
+                    && request.get(end - 2) == '\r' && request.get(end - 1) == '\n';
+        }
+
+        private String readRequestLine() {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < request.position(); i++) {
+                char c = (char) request.get(i);
+                if (c == '\r' || c == '\n') {
+                    break;
+                }
+                line.append(c);
+            }
+            return line.toString();
+        }
+
+        private ByteBuffer encode() {
+            Map<String, StringBuilder> families = new TreeMap<>();
+            source.accept(m -> {
+                StringBuilder labels = new StringBuilder();
+                for (Map.Entry<String, String> tag : m.getSeries().getTags().entrySet()) {
+                    appendLabel(labels, tag.getKey(), tag.getValue());
+                }
+                for (Map.Entry<String, String> field : m.getStringValues().entrySet()) {
+                    appendLabel(labels, field.getKey(), field.getValue());
+                }
+                for (Map.Entry<String, Number> field : m.getNumericValues().entrySet()) {
+                    String name = sanitize(m.getSeries().getMeasurement() + "_" + field.getKey(), true);
+                    StringBuilder family = families.computeIfAbsent(name,
+                            k -> new StringBuilder("# TYPE ").append(k).append(" gauge\n"));
+                    family.append(name);
+                    if (labels.length() > 0) {
+                        family.append('{').append(labels).append('}');
+                    }
+                    family.append(' ').append(field.getValue()).append('\n');
+                }
+            });
+
+            text.setLength(0);
+            families.values().forEach(text::append);
+
+            response.clear();
+            encoder.reset();
+            CharBuffer chars = CharBuffer.wrap(text);
+            while (true) {
+                CoderResult result = encoder.encode(chars, response, true);
+                if (result.isOverflow()) {
+                    ByteBuffer larger = ByteBuffer.allocateDirect(response.capacity() * 2);
+                    response.flip();
+                    larger.put(response);
+                    response = larger;
+                } else {
+                    encoder.flush(response);
+                    break;
+                }
+            }
+            response.flip();
+            return response;
+        }
+    }
+
+    private static void appendLabel(StringBuilder labels, String key, String value) {
+        if (labels.length() > 0) {
+            labels.append(',');
+        }
+        labels.append(sanitize(key, false)).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                labels.append('\\').append(c);
+            } else if (c == '\n') {
+                labels.append("\\n");
+            } else {
+                labels.append(c);
+            }
+        }
+        labels.append('"');
+    }
+
+    private static String sanitize(String name, boolean allowColon) {
+        StringBuilder sanitized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || (allowColon && c == ':')
+                    || (i > 0 && c >= '0' && c <= '9');
+            sanitized.append(valid ? c : '_');
+        }
+        return sanitized.toString();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+        } catch (IOException ex) {
+            log.warn("Failed to close scrape endpoint", ex);
+        }
+        server = null;
+    }
+}
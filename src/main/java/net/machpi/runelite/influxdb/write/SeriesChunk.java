@@ -0,0 +1,345 @@
+package net.machpi.runelite.influxdb.write;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Column-oriented block of points from one series that all have the same fields.  Timestamps are delta-of-delta
+ * encoded and floating point fields XOR encoded as in Facebook's Gorilla, integral fields are stored as zig-zag
+ * varint deltas, and string fields are dictionary encoded.
+ *
+ * <p>Encoded layout: total length, series id, point count, first and last timestamp, field count, each field's
+ * name and type, then the bit length and bytes of the timestamp column followed by each field column.</p>
+ */
+final class SeriesChunk {
+    static final int HEADER_SIZE = Integer.BYTES * 3 + Long.BYTES * 2;
+
+    private static final byte TYPE_INTEGRAL = 0;
+    private static final byte TYPE_FLOATING_POINT = 1;
+    private static final byte TYPE_STRING = 2;
+
+    private final int seriesId;
+    private final String[] fields;
+    private final byte[] types;
+    private final long openedAt = System.currentTimeMillis();
+
+    private final BitWriter times = new BitWriter();
+    private final BitWriter[] columns;
+    private int count;
+    private long firstTime;
+    private long lastTime;
+    private long lastDelta;
+
+    private final long[] previous;
+    private final int[] leadingZeros;
+    private final int[] trailingZeros;
+    private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+
+    SeriesChunk(int seriesId, Measurement first) {
+        this.seriesId = seriesId;
+        int size = first.getFieldCount();
+        fields = new String[size];
+        types = new byte[size];
+        int i = 0;
+        for (String field : first.getStringValues().keySet()) {
+            fields[i++] = field;
+        }
+        for (String field : first.getNumericValues().keySet()) {
+            fields[i++] = field;
+        }
+        Arrays.sort(fields);
+        columns = new BitWriter[size];
+        for (i = 0; i < size; i++) {
+            types[i] = typeOf(first, fields[i]);
+            columns[i] = new BitWriter();
+            dictionaries.add(types[i] == TYPE_STRING ? new HashMap<>() : null);
+        }
+        previous = new long[size];
+        leadingZeros = new int[size];
+        trailingZeros = new int[size];
+    }
+
+    private static byte typeOf(Measurement m, String field) {
+        Number number = m.getNumericValues().get(field);
+        if (number == null) {
+            return m.getStringValues().containsKey(field) ? TYPE_STRING : -1;
+        }
+        return number instanceof Double || number instanceof Float ? TYPE_FLOATING_POINT : TYPE_INTEGRAL;
+    }
+
+    /**
+     * Whether the measurement has exactly the fields and field types of this chunk.
+     */
+    boolean accepts(Measurement m) {
+        if (m.getFieldCount() != fields.length) {
+            return false;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (typeOf(m, fields[i]) != types[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void add(Measurement m) {
+        appendTime(m.getTime());
+        for (int i = 0; i < fields.length; i++) {
+            switch (types[i]) {
+                case TYPE_INTEGRAL:
+                    appendIntegral(i, m.getNumericValues().get(fields[i]).longValue());
+                    break;
+                case TYPE_FLOATING_POINT:
+                    appendFloatingPoint(i, m.getNumericValues().get(fields[i]).doubleValue());
+                    break;
+                default:
+                    appendString(i, m.getStringValues().get(fields[i]));
+                    break;
+            }
+        }
+        count++;
+    }
+
+    private void appendTime(long time) {
+        if (count == 0) {
+            firstTime = time;
+            times.write(time, Long.SIZE);
+        } else if (count == 1) {
+            lastDelta = time - lastTime;
+            times.writeZigZag(lastDelta);
+        } else {
+            long delta = time - lastTime;
+            long deltaOfDelta = delta - lastDelta;
+            if (deltaOfDelta == 0) {
+                times.write(0, 1);
+            } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+                times.write(0b10, 2);
+                times.write(deltaOfDelta, 7);
+            } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+                times.write(0b110, 3);
+                times.write(deltaOfDelta, 9);
+            } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+                times.write(0b1110, 4);
+                times.write(deltaOfDelta, 12);
+            } else {
+                times.write(0b1111, 4);
+                times.write(deltaOfDelta, Long.SIZE);
+            }
+            lastDelta = delta;
+        }
+        lastTime = time;
+    }
+
+    private void appendIntegral(int field, long value) {
+        columns[field].writeZigZag(value - previous[field]);
+        previous[field] = value;
+    }
+
+    private void appendFloatingPoint(int field, double value) {
+        BitWriter column = columns[field];
+        long bits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            column.write(bits, Long.SIZE);
+            leadingZeros[field] = -1;
+        } else {
+            long xor = bits ^ previous[field];
+            if (xor == 0) {
+                column.writeBit(false);
+            } else {
+                column.writeBit(true);
+                int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (leadingZeros[field] >= 0 && leading >= leadingZeros[field] && trailing >= trailingZeros[field]) {
+                    // the meaningful bits fit in the previous window
+                    column.writeBit(false);
+                    column.write(xor >>> trailingZeros[field], Long.SIZE - leadingZeros[field] - trailingZeros[field]);
+                } else {
+                    int significant = Long.SIZE - leading - trailing;
+                    column.writeBit(true);
+                    column.write(leading, 5);
+                    column.write(significant - 1, 6);
+                    column.write(xor >>> trailing, significant);
+                    leadingZeros[field] = leading;
+                    trailingZeros[field] = trailing;
+                }
+            }
+        }
+        previous[field] = bits;
+    }
+
+    private void appendString(int field, String value) {
+        BitWriter column = columns[field];
+        Map<String, Integer> dictionary = dictionaries.get(field);
+        Integer index = dictionary.get(value);
+        if (index != null) {
+            column.writeVarint(index + 1);
+            return;
+        }
+        dictionary.put(value, dictionary.size());
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        column.writeVarint(0);
+        column.writeVarint(bytes.length);
+        for (byte b : bytes) {
+            column.write(b, 8);
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    long getOpenedAt() {
+        return openedAt;
+    }
+
+    int encodedSize() {
+        int size = HEADER_SIZE + Short.BYTES;
+        for (String field : fields) {
+            size += Short.BYTES + field.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        size += Integer.BYTES + times.byteLength();
+        for (BitWriter column : columns) {
+            size += Integer.BYTES + column.byteLength();
+        }
+        return size;
+    }
+
+    void writeTo(ByteBuffer output) {
+        output.putInt(encodedSize());
+        output.putInt(seriesId);
+        output.putInt(count);
+        output.putLong(firstTime);
+        output.putLong(lastTime);
+        output.putShort((short) fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            byte[] name = fields[i].getBytes(StandardCharsets.UTF_8);
+            output.putShort((short) name.length);
+            output.put(name);
+            output.put(types[i]);
+        }
+        output.putInt(times.bitLength());
+        times.writeTo(output);
+        for (BitWriter column : columns) {
+            output.putInt(column.bitLength());
+            column.writeTo(output);
+        }
+    }
+
+    /**
+     * Decodes the points of an encoded chunk between {@code from} and {@code to} inclusive.  {@code position} is the
+     * start of the chunk, and the buffer's own position is not changed.
+     */
+    static void read(ByteBuffer buffer, int position, Series series, long from, long to, Consumer<Measurement> output) {
+        int count = buffer.getInt(position + Integer.BYTES * 2);
+        int offset = position + HEADER_SIZE;
+        int fieldCount = buffer.getShort(offset);
+        offset += Short.BYTES;
+        String[] fields = new String[fieldCount];
+        byte[] types = new byte[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            byte[] name = new byte[buffer.getShort(offset)];
+            offset += Short.BYTES;
+            for (int b = 0; b < name.length; b++) {
+                name[b] = buffer.get(offset++);
+            }
+            fields[i] = new String(name, StandardCharsets.UTF_8);
+            types[i] = buffer.get(offset++);
+        }
+
+        BitReader times = new BitReader(buffer, offset + Integer.BYTES);
+        offset += Integer.BYTES + ((buffer.getInt(offset) + 7) >>> 3);
+        BitReader[] columns = new BitReader[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            columns[i] = new BitReader(buffer, offset + Integer.BYTES);
+            offset += Integer.BYTES + ((buffer.getInt(offset) + 7) >>> 3);
+        }
+
+        long time = 0;
+        long delta = 0;
+        long[] previous = new long[fieldCount];
+        int[] leadingZeros = new int[fieldCount];
+        int[] trailingZeros = new int[fieldCount];
+        List<List<String>> dictionaries = new ArrayList<>();
+        for (int i = 0; i < fieldCount; i++) {
+            dictionaries.add(types[i] == TYPE_STRING ? new ArrayList<>() : null);
+        }
+
+        for (int point = 0; point < count; point++) {
+            if (point == 0) {
+                time = times.read(Long.SIZE);
+            } else if (point == 1) {
+                delta = times.readZigZag();
+                time += delta;
+            } else {
+                delta += readDeltaOfDelta(times);
+                time += delta;
+            }
+
+            Measurement.MeasurementBuilder builder = Measurement.builder().series(series).time(time);
+            for (int i = 0; i < fieldCount; i++) {
+                BitReader column = columns[i];
+                switch (types[i]) {
+                    case TYPE_INTEGRAL:
+                        previous[i] += column.readZigZag();
+                        builder.numericValue(fields[i], previous[i]);
+                        break;
+                    case TYPE_FLOATING_POINT:
+                        if (point == 0) {
+                            previous[i] = column.read(Long.SIZE);
+                        } else if (column.readBit()) {
+                            if (column.readBit()) {
+                                leadingZeros[i] = (int) column.read(5);
+                                trailingZeros[i] = Long.SIZE - leadingZeros[i] - ((int) column.read(6) + 1);
+                            }
+                            int significant = Long.SIZE - leadingZeros[i] - trailingZeros[i];
+                            previous[i] ^= column.read(significant) << trailingZeros[i];
+                        }
+                        builder.numericValue(fields[i], Double.longBitsToDouble(previous[i]));
+                        break;
+                    default:
+                        List<String> dictionary = dictionaries.get(i);
+                        int index = (int) column.readVarint();
+                        String value;
+                        if (index == 0) {
+                            byte[] bytes = new byte[(int) column.readVarint()];
+                            for (int b = 0; b < bytes.length; b++) {
+                                bytes[b] = (byte) column.read(8);
+                            }
+                            value = new String(bytes, StandardCharsets.UTF_8);
+                            dictionary.add(value);
+                        } else {
+                            value = dictionary.get(index - 1);
+                        }
+                        builder.stringValue(fields[i], value);
+                        break;
+                }
+            }
+            // every column has to be decoded to move past this point, even when it is out of range
+            if (time >= from && time <= to) {
+                output.accept(builder.build());
+            }
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader times) {
+        if (!times.readBit()) {
+            return 0;
+        }
+        if (!times.readBit()) {
+            return times.readSigned(7);
+        }
+        if (!times.readBit()) {
+            return times.readSigned(9);
+        }
+        if (!times.readBit()) {
+            return times.readSigned(12);
+        }
+        return times.read(Long.SIZE);
+    }
+}
@@ -0,0 +1,214 @@
+package net.machpi.runelite.influxdb.write;
+
+import lombok.extern.slf4j.Slf4j;
+import net.machpi.runelite.influxdb.TimestampPrecision;
+import net.runelite.client.util.OSType;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets the clients on one machine share a single uploader.  Each client with sharing enabled tries to listen on the
+ * same loopback port at every flush: the one that holds the port is the aggregator, and the others hand it their
+ * encoded lines through a {@link ForwardingSink} instead of uploading them themselves.  When the aggregator exits the
+ * port is released, and the next client to flush takes over.  Only clients with servers to upload to take part.
+ *
+ * <p>Forwarded lines are held until the aggregator's next flush, when they're merged into its own batch and uploaded
+ * to its servers.  Each forwarding client keeps one connection open, served by its own daemon thread.</p>
+ *
+ * <p>Frames are a magic number, the fingerprint of the client's upload destination, the precision name, and a
+ * length-prefixed UTF-8 body of newline separated lines.  Each frame is answered with one byte: {@link #ACCEPTED},
+ * {@link #REJECTED} when too much is already pending, so the client keeps the batch and retries, or
+ * {@link #MISROUTED} when the aggregator uploads somewhere else, so the client uploads its lines itself.</p>
+ */
+@Slf4j
+class SharedAggregator implements Closeable {
+    static final int MAGIC = 0x524c4959;
+    static final int ACCEPTED = 1;
+    static final int REJECTED = 0;
+    static final int MISROUTED = 2;
+    private static final int MAX_FRAME_BYTES = 16 << 20;
+    private static final int MAX_PENDING_LINES = 500_000;
+
+    private final int maxPendingLines;
+    private ServerSocket server;
+    private int port;
+    /**
+     * {@link HttpLineProtocolSink#destination} of this client, which forwarded lines must match.
+     */
+    private long destination;
+    private final List<Socket> clients = new ArrayList<>();
+
+    private final Map<TimestampPrecision, List<String>> pending = new EnumMap<>(TimestampPrecision.class);
+    private int pendingLines;
+
+    SharedAggregator() {
+        this(MAX_PENDING_LINES);
+    }
+
+    SharedAggregator(int maxPendingLines) {
+        this.maxPendingLines = maxPendingLines;
+    }
+
+    /**
+     * Listens on the port unless another client already does.  Changing the destination starts over, disconnecting
+     * the forwarding clients.
+     *
+     * @param destination {@link HttpLineProtocolSink#destination} of this client
+     * @return whether this client is the aggregator
+     */
+    synchronized boolean elect(int port, long destination) {
+        if (server != null && this.port == port && this.destination == destination) {
+            return true;
+        }
+        close();
+        ServerSocket server;
+        try {
+            server = new ServerSocket();
+        } catch (IOException ex) {
+            log.debug("Failed to create aggregator socket", ex);
+            return false;
+        }
+        try {
+            // lets a new aggregator take over while connections to the last one are in TIME_WAIT, except on Windows
+            // where it would let two processes hold the port
+            server.setReuseAddress(OSType.getOSType() != OSType.Windows);
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException ex) {
+            closeQuietly(server);
+            return false;
+        }
+        this.server = server;
+        this.port = port;
+        this.destination = destination;
+        Thread thread = new Thread(() -> accept(server), "influxdb-aggregator");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Uploading for the other clients on this machine through port {}", port);
+        return true;
+    }
+
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                synchronized (this) {
+                    if (this.server != server) {
+                        closeQuietly(client);
+                        return;
+                    }
+                    clients.add(client);
+                }
+                Thread thread = new Thread(() -> receive(client), "influxdb-aggregator-client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException ex) {
+                if (!server.isClosed()) {
+                    log.debug("Failed to accept forwarding client", ex);
+                }
+            }
+        }
+    }
+
+    private void receive(Socket client) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()))) {
+            OutputStream out = client.getOutputStream();
+            while (true) {
+                if (in.readInt() != MAGIC) {
+                    log.debug("Closing connection from a client that isn't forwarding measurements");
+                    return;
+                }
+                long destination = in.readLong();
+                TimestampPrecision precision = TimestampPrecision.valueOf(in.readUTF());
+                int length = in.readInt();
+                if (length < 0 || length > MAX_FRAME_BYTES) {
+                    log.debug("Closing connection after a {} byte frame", length);
+                    return;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                out.write(add(destination, precision, new String(body, StandardCharsets.UTF_8)));
+                out.flush();
+            }
+        } catch (EOFException | SocketException ex) {
+            log.debug("Forwarding client disconnected");
+        } catch (IOException | IllegalArgumentException ex) {
+            log.debug("Failed to receive from forwarding client", ex);
+        } finally {
+            synchronized (this) {
+                clients.remove(client);
+            }
+            closeQuietly(client);
+        }
+    }
+
+    private synchronized int add(long destination, TimestampPrecision precision, String body) {
+        if (destination != this.destination) {
+            return MISROUTED;
+        }
+        if (body.isEmpty()) {
+            return ACCEPTED;
+        }
+        String[] lines = body.split("\n");
+        if (pendingLines + lines.length > maxPendingLines) {
+            return REJECTED;
+        }
+        Collections.addAll(pending.computeIfAbsent(precision, k -> new ArrayList<>()), lines);
+        pendingLines += lines.length;
+        return ACCEPTED;
+    }
+
+    /**
+     * Takes the lines forwarded since the last call, by precision.
+     */
+    synchronized Map<TimestampPrecision, List<String>> drain() {
+        if (pending.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<TimestampPrecision, List<String>> drained = new EnumMap<>(pending);
+        pending.clear();
+        pendingLines = 0;
+        return drained;
+    }
+
+    /**
+     * Stops listening and disconnects every forwarding client, which then elect another aggregator.  Lines already
+     * forwarded are still returned by {@link #drain()}.
+     */
+    @Override
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        closeQuietly(server);
+        clients.forEach(SharedAggregator::closeQuietly);
+        clients.clear();
+        server = null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            log.debug("Failed to close aggregator socket", ex);
+        }
+    }
+}
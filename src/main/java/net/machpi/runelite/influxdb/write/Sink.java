@@ -0,0 +1,23 @@
+package net.machpi.runelite.influxdb.write;
+
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for flushed batches.  Each sink is only called from its own {@link SinkRunner}, one batch at a time.
+ */
+interface Sink extends Closeable {
+    /**
+     * Writes a batch, throwing if it should be retried later.
+     */
+    void write(Batch batch, InfluxDbConfig config) throws IOException;
+
+    /**
+     * Releases any open resources.  The sink may be written to again afterwards.
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,191 @@
+package net.machpi.runelite.influxdb.write;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Delivers batches to one sink on its own thread, with a bounded queue and exponential backoff between failed
+ * attempts, so a slow or failing sink never holds back the others.  A batch that failed in a way worth retrying stays
+ * at the head of the queue until it succeeds, while one the server rejected outright is dropped.  The oldest batch is
+ * dropped once the queue is full.
+ */
+@Slf4j
+class SinkRunner {
+    private static final int MAX_QUEUED_BATCHES = 120;
+    private static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final String name;
+    private final Sink sink;
+    private final Supplier<InfluxDbConfig> config;
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final ArrayDeque<Batch> queue = new ArrayDeque<>();
+    /**
+     * Whether a drain is running or scheduled, including a retry waiting out its backoff.
+     */
+    private boolean draining;
+    private int failures;
+    private int dropped;
+
+    SinkRunner(String name, Sink sink, Supplier<InfluxDbConfig> config) {
+        this.name = name;
+        this.sink = sink;
+        this.config = config;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("influxdb-" + name.replaceAll("[^A-Za-z0-9]+", "-"))
+                .setDaemon(true)
+                .build());
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    synchronized void offer(Batch batch) {
+        if (queue.size() >= MAX_QUEUED_BATCHES) {
+            queue.removeFirst().getDelivery().dropped();
+            dropped++;
+        }
+        batch.getDelivery().queued();
+        queue.addLast(batch);
+        if (!draining) {
+            draining = true;
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                batch = queue.peekFirst();
+                if (batch == null) {
+                    draining = false;
+                    notifyAll();
+                    return;
+                }
+            }
+
+            try {
+                sink.write(batch, config.get());
+            } catch (HttpStatusException ex) {
+                if (ex.isRetryable()) {
+                    retryLater(ex);
+                    return;
+                }
+                // sending it again would fail the same way, and hold back everything queued behind it
+                log.warn("Dropping a batch of {} lines {} rejected", batch.getLines().size(), name, ex);
+                synchronized (this) {
+                    if (queue.peekFirst() == batch) {
+                        queue.removeFirst();
+                        batch.getDelivery().dropped();
+                    }
+                    failures = 0;
+                }
+                continue;
+            } catch (IOException | RuntimeException ex) {
+                retryLater(ex);
+                return;
+            }
+
+            synchronized (this) {
+                // the batch may have been dropped from a full queue while it was being written, and reported then
+                if (queue.peekFirst() == batch) {
+                    queue.removeFirst();
+                    batch.getDelivery().written();
+                }
+                if (failures > 0) {
+                    log.info("Writing to {} recovered after {} failures", name, failures);
+                    failures = 0;
+                }
+                if (dropped > 0) {
+                    log.warn("Dropped {} batches for {} while its queue was full", dropped, name);
+                    dropped = 0;
+                }
+            }
+        }
+    }
+
+    private void retryLater(Exception ex) {
+        long backoff;
+        int failures;
+        synchronized (this) {
+            failures = ++this.failures;
+            backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+        }
+        log.warn("Failed to write to {} {} times, retrying in {}s", name, failures,
+                TimeUnit.MILLISECONDS.toSeconds(backoff), ex);
+        executor.schedule(this::drain, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized String health() {
+        if (failures == 0) {
+            return name + ": ok, " + queue.size() + " queued";
+        }
+        return name + ": " + failures + " failures, " + queue.size() + " queued";
+    }
+
+    /**
+     * Waits until everything queued is written, or until the deadline.
+     *
+     * @param deadline {@link System#nanoTime()} to give up at
+     * @return whether the queue was emptied
+     */
+    synchronized boolean awaitIdle(long deadline) {
+        try {
+            while (draining || !queue.isEmpty()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stops delivering and closes the sink once any write in progress is done.
+     *
+     * @return the batches not yet written, including any being written now
+     */
+    synchronized List<Batch> close() {
+        List<Batch> unwritten = new ArrayList<>(queue);
+        queue.clear();
+        executor.execute(sink::close);
+        executor.shutdown();
+        return unwritten;
+    }
+
+    /**
+     * Waits until the sink has been closed after {@link #close()}, or until the deadline.
+     *
+     * @param deadline {@link System#nanoTime()} to give up at
+     * @return whether the sink was closed
+     */
+    boolean awaitTermination(long deadline) {
+        try {
+            if (executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        log.warn("Gave up waiting for {} to close", name);
+        return false;
+    }
+
+    boolean isTerminated() {
+        return executor.isTerminated();
+    }
+}
@@ -0,0 +1,109 @@
+package net.machpi.runelite.influxdb.write;
+
+import lombok.extern.slf4j.Slf4j;
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Sends line protocol to a UDP listener, such as influx's UDP service or a Telegraf socket listener.  Lines are packed
+ * into as few datagrams as fit the configured packet size.  Sends never block: a datagram the socket can't take
+ * immediately is dropped, as is anything the listener doesn't receive.
+ */
+@Slf4j
+class UdpLineProtocolSink implements Sink {
+    // largest UDP payload over IPv4
+    private static final int MAX_DATAGRAM = 65507;
+
+    private DatagramChannel channel;
+    private String host;
+    private int port;
+    private InetSocketAddress target;
+    private ByteBuffer packet;
+    private int dropped;
+
+    @Override
+    public synchronized void write(Batch batch, InfluxDbConfig config) throws IOException {
+        connect(config);
+        packet.clear();
+        for (String line : batch.getLines()) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > packet.capacity()) {
+                // a line can't be split between datagrams, so send it on its own if UDP allows
+                sendPacket();
+                if (bytes.length > MAX_DATAGRAM) {
+                    log.warn("Dropping {} byte point too large for a datagram", bytes.length);
+                } else {
+                    sendPacket(ByteBuffer.wrap(bytes));
+                }
+                continue;
+            }
+            int needed = bytes.length + (packet.position() > 0 ? 1 : 0);
+            if (needed > packet.remaining()) {
+                sendPacket();
+            }
+            if (packet.position() > 0) {
+                packet.put((byte) '\n');
+            }
+            packet.put(bytes);
+        }
+        sendPacket();
+
+        if (dropped > 0) {
+            log.debug("Dropped {} datagrams the socket wasn't ready for", dropped);
+            dropped = 0;
+        }
+    }
+
+    private void connect(InfluxDbConfig config) throws IOException {
+        if (target == null || !Objects.equals(host, config.getUdpHost()) || port != config.getUdpPort()) {
+            InetSocketAddress resolved = new InetSocketAddress(config.getUdpHost(), config.getUdpPort());
+            if (resolved.isUnresolved()) {
+                throw new IOException("Unable to resolve " + config.getUdpHost());
+            }
+            host = config.getUdpHost();
+            port = config.getUdpPort();
+            target = resolved;
+        }
+        if (channel == null) {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+        }
+        int size = Math.min(config.udpPacketSize(), MAX_DATAGRAM);
+        if (packet == null || packet.capacity() != size) {
+            packet = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    private void sendPacket() throws IOException {
+        if (packet.position() == 0) {
+            return;
+        }
+        packet.flip();
+        sendPacket(packet);
+        packet.clear();
+    }
+
+    private void sendPacket(ByteBuffer datagram) throws IOException {
+        if (channel.send(datagram, target) == 0) {
+            dropped++;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                log.warn("Failed to close UDP channel", ex);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.machpi.runelite.influxdb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntAccumulatorTest {
+    @Test
+    public void sumsDeltasPerKey() {
+        IntAccumulator acc = new IntAccumulator(4);
+        acc.add(995, 10);
+        acc.add(314, 3);
+        acc.add(995, -4);
+        acc.add(314, -3);
+
+        assertEquals(2, acc.size());
+        assertEquals(6, acc.get(995));
+        assertEquals(0, acc.get(314));
+        assertEquals(0, acc.get(1));
+    }
+
+    @Test
+    public void iteratesInInsertionOrder() {
+        IntAccumulator acc = new IntAccumulator(4);
+        int[] keys = {42, -7, 0, 1 << 20, 3};
+        for (int i = 0; i < keys.length; i++) {
+            acc.add(keys[i], i + 1);
+        }
+
+        assertEquals(keys.length, acc.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(keys[i], acc.keyAt(i));
+            assertEquals(i + 1, acc.valueAt(i));
+        }
+    }
+
+    @Test
+    public void growsPastExpectedSize() {
+        IntAccumulator acc = new IntAccumulator(2);
+        for (int key = 0; key < 1000; key++) {
+            acc.add(key * 31, key);
+        }
+        for (int key = 0; key < 1000; key++) {
+            acc.add(key * 31, 1);
+        }
+
+        assertEquals(1000, acc.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i * 31, acc.keyAt(i));
+            assertEquals(i + 1, acc.valueAt(i));
+            assertEquals(i + 1, acc.get(i * 31));
+        }
+    }
+
+    @Test
+    public void clearForgetsEveryKey() {
+        IntAccumulator acc = new IntAccumulator(8);
+        for (int key = 0; key < 8; key++) {
+            acc.add(key, 5);
+        }
+        acc.clear();
+
+        assertEquals(0, acc.size());
+        for (int key = 0; key < 8; key++) {
+            assertEquals(0, acc.get(key));
+        }
+
+        acc.add(3, 2);
+        acc.add(12, 1);
+        assertEquals(2, acc.size());
+        assertEquals(3, acc.keyAt(0));
+        assertEquals(2, acc.valueAt(0));
+        assertEquals(12, acc.keyAt(1));
+        assertEquals(1, acc.valueAt(1));
+    }
+}
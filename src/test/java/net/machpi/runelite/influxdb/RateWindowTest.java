@@ -0,0 +1,159 @@
+package net.machpi.runelite.influxdb;
+
+import net.machpi.runelite.influxdb.write.Measurement;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateWindowTest {
+    private static final long START = 1_600_000_000_000L;
+    private static final long SECOND = TimeUnit.SECONDS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private static Map<String, Number> rates(RateWindow window, long now) {
+        Measurement.MeasurementBuilder builder = Measurement.builder().time(now);
+        window.addRates(builder, now);
+        return builder.build().getNumericValues();
+    }
+
+    private static double rate(Map<String, Number> rates, String field) {
+        Number rate = rates.get(field);
+        assertTrue("missing " + field + " in " + rates, rate != null);
+        return rate.doubleValue();
+    }
+
+    /**
+     * Records {@code perTenSeconds} every ten seconds for {@code minutes}, starting from {@code value}.
+     *
+     * @return the time of the last sample
+     */
+    private static long steady(RateWindow window, long from, long value, long perTenSeconds, int minutes) {
+        long time = from;
+        for (int i = 0; i <= minutes * 6; i++) {
+            time = from + i * 10 * SECOND;
+            window.record(time, value + i * perTenSeconds);
+        }
+        return time;
+    }
+
+    @Test
+    public void noRatesWithoutEnoughHistory() {
+        RateWindow window = new RateWindow("xp");
+        assertTrue(rates(window, START).isEmpty());
+
+        window.record(START, 1000);
+        window.record(START + 30 * SECOND, 1500);
+        assertTrue(rates(window, START + 30 * SECOND).isEmpty());
+    }
+
+    @Test
+    public void steadyRateIsSameOverEveryWindow() {
+        RateWindow window = new RateWindow("xp");
+        long now = steady(window, START, 0, 100, 120);
+
+        Map<String, Number> rates = rates(window, now);
+        assertEquals(3, rates.size());
+        assertEquals(36_000, rate(rates, "xpPerHour5m"), 36_000 * 0.04);
+        assertEquals(36_000, rate(rates, "xpPerHour1h"), 36_000 * 0.01);
+        assertEquals(36_000, rate(rates, "xpPerHourSession"), 1e-6);
+    }
+
+    @Test
+    public void shortWindowUsesSessionUntilItIsFull() {
+        RateWindow window = new RateWindow("kills");
+        long now = steady(window, START, 0, 1, 2);
+
+        Map<String, Number> rates = rates(window, now);
+        assertEquals(360, rate(rates, "killsPerHour5m"), 1e-6);
+        assertEquals(360, rate(rates, "killsPerHour1h"), 1e-6);
+        assertEquals(360, rate(rates, "killsPerHourSession"), 1e-6);
+    }
+
+    @Test
+    public void idleTimeCarriesLastValue() {
+        RateWindow window = new RateWindow("xp");
+        long last = steady(window, START, 0, 100, 120);
+        long now = last + 10 * MINUTE;
+        window.record(now, 72_000);
+
+        Map<String, Number> rates = rates(window, now);
+        double shortRate = rate(rates, "xpPerHour5m");
+        double hourRate = rate(rates, "xpPerHour1h");
+        double sessionRate = rate(rates, "xpPerHourSession");
+        assertEquals(0, shortRate, 1e-6);
+        assertEquals(30_000, hourRate, 30_000 * 0.01);
+        assertEquals(36_000 * 120 / 130.0, sessionRate, 1e-6);
+    }
+
+    @Test
+    public void clockGoingBackwardsUpdatesLatestBucket() {
+        RateWindow window = new RateWindow("xp");
+        window.record(START, 0);
+        window.record(START + 2 * MINUTE, 100);
+        window.record(START + MINUTE, 200);
+
+        Map<String, Number> rates = rates(window, START + 2 * MINUTE);
+        assertEquals(6000, rate(rates, "xpPerHourSession"), 1e-6);
+    }
+
+    /**
+     * Half the session's rate for the hour before it, leading up to the {@code 29_500} it starts at.
+     */
+    private static void seedSlowerHour(RateWindow window, long last) {
+        long[] times = new long[60];
+        long[] samples = new long[60];
+        for (int i = 0; i < 60; i++) {
+            times[i] = START + i * MINUTE;
+            samples[i] = i * 500 + (last - 29_500);
+        }
+        window.seed(times, samples);
+    }
+
+    @Test
+    public void seededHistoryFillsWindowsBeforeSession() {
+        RateWindow window = new RateWindow("xp");
+        long now = START + 62 * MINUTE;
+        window.record(START + 60 * MINUTE, 29_500);
+        window.record(now, 31_500);
+        seedSlowerHour(window, 29_500);
+
+        Map<String, Number> rates = rates(window, now);
+        assertEquals(30_500, rate(rates, "xpPerHour1h"), 30_500 * 0.01);
+        assertEquals(60_000, rate(rates, "xpPerHourSession"), 1e-6);
+    }
+
+    @Test
+    public void seededHistoryIsIgnoredWhenItDoesNotLeadUpToSession() {
+        RateWindow window = new RateWindow("xp");
+        long now = START + 62 * MINUTE;
+        window.record(START + 60 * MINUTE, 29_500);
+        window.record(now, 31_500);
+        // gained somewhere else after the last value kept
+        seedSlowerHour(window, 25_000);
+
+        Map<String, Number> rates = rates(window, now);
+        assertEquals(60_000, rate(rates, "xpPerHour1h"), 1e-6);
+        assertEquals(60_000, rate(rates, "xpPerHourSession"), 1e-6);
+    }
+
+    @Test
+    public void resetStartsNewSession() {
+        RateWindow window = new RateWindow("xp");
+        long last = steady(window, START, 0, 100, 30);
+        window.reset();
+        assertTrue(rates(window, last).isEmpty());
+
+        long from = last + 10 * SECOND;
+        window.record(from, 1_000_000);
+        window.record(from + 2 * MINUTE, 1_002_000);
+
+        Map<String, Number> rates = rates(window, from + 2 * MINUTE);
+        assertEquals(60_000, rate(rates, "xpPerHour5m"), 1e-6);
+        assertEquals(60_000, rate(rates, "xpPerHour1h"), 1e-6);
+        assertEquals(60_000, rate(rates, "xpPerHourSession"), 1e-6);
+    }
+}
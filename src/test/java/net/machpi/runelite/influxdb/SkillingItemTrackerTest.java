@@ -0,0 +1,184 @@
+package net.machpi.runelite.influxdb;
+
+import net.machpi.runelite.influxdb.write.InfluxWriter;
+import net.machpi.runelite.influxdb.write.Measurement;
+import net.runelite.api.Client;
+import net.runelite.api.Item;
+import net.runelite.api.ItemComposition;
+import net.runelite.api.ItemContainer;
+import net.runelite.api.ItemID;
+import net.runelite.api.Skill;
+import net.runelite.client.game.ItemManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SkillingItemTrackerTest {
+    private final Map<Integer, ItemComposition> compositions = new HashMap<>();
+    private MeasurementCreator measurementCreator;
+    private InfluxWriter writer;
+    private SkillingItemTracker tracker;
+    private int tick;
+
+    @Before
+    public void before() {
+        Client client = mock(Client.class);
+        when(client.getTickCount()).thenAnswer(invocation -> tick);
+
+        ItemManager itemManager = mock(ItemManager.class);
+        when(itemManager.canonicalize(anyInt())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(itemManager.getItemComposition(anyInt())).thenAnswer(invocation -> composition(invocation.getArgument(0)));
+
+        measurementCreator = mock(MeasurementCreator.class);
+        when(measurementCreator.createSkillingItemMeasurement(any(), anyInt(), anyFloat(), any(), anyLong()))
+                .thenReturn(Measurement.builder().time(0L).build());
+        writer = mock(InfluxWriter.class);
+
+        tracker = new SkillingItemTracker(client, itemManager, measurementCreator, writer);
+        tick = 100;
+    }
+
+    private ItemComposition composition(int id) {
+        return compositions.computeIfAbsent(id, k -> mock(ItemComposition.class));
+    }
+
+    private static ItemContainer inventory(Item... slots) {
+        ItemContainer container = mock(ItemContainer.class);
+        when(container.size()).thenReturn(28);
+        when(container.getItem(anyInt())).thenAnswer(invocation -> {
+            int slot = invocation.getArgument(0);
+            return slot < slots.length ? slots[slot] : null;
+        });
+        return container;
+    }
+
+    private static Item item(int id, int quantity) {
+        return new Item(id, quantity);
+    }
+
+    private void nextTick() {
+        tick++;
+        tracker.flushIfNeeded();
+    }
+
+    private void verifyNothingSubmitted() {
+        verify(writer, never()).submit(any());
+    }
+
+    @Test
+    public void attributesItemsToXpOfSameTick() {
+        tracker.onXpGained(Skill.FISHING, 50);
+        tracker.onXpGained(Skill.FISHING, 50);
+        tracker.onInventoryChanges(inventory(item(ItemID.RAW_SHRIMPS, 1)));
+        verifyNothingSubmitted();
+
+        nextTick();
+        verify(measurementCreator).createSkillingItemMeasurement(
+                Skill.FISHING, 100, 100f, composition(ItemID.RAW_SHRIMPS), 1);
+        verify(writer).submit(any());
+    }
+
+    @Test
+    public void splitsXpAcrossItemsOfOneDrop() {
+        tracker.onXpGained(Skill.FISHING, 90);
+        tracker.onInventoryChanges(inventory(
+                item(ItemID.RAW_SHRIMPS, 1), item(ItemID.RAW_ANCHOVIES, 1), item(ItemID.RAW_SHRIMPS, 1)));
+        nextTick();
+
+        verify(measurementCreator).createSkillingItemMeasurement(
+                Skill.FISHING, 90, 30f, composition(ItemID.RAW_SHRIMPS), 2);
+        verify(measurementCreator).createSkillingItemMeasurement(
+                Skill.FISHING, 90, 30f, composition(ItemID.RAW_ANCHOVIES), 1);
+        verify(writer, times(2)).submit(any());
+    }
+
+    @Test
+    public void eachDropIsPairedOnce() {
+        tracker.onXpGained(Skill.WOODCUTTING, 25);
+        tracker.onInventoryChanges(inventory(item(ItemID.LOGS, 1)));
+        nextTick();
+        tracker.onInventoryChanges(inventory(item(ItemID.LOGS, 1), item(ItemID.LOGS, 1)));
+        nextTick();
+
+        verify(writer, times(1)).submit(any());
+    }
+
+    @Test
+    public void attributesItemsArrivingWithinWindow() {
+        tracker.onXpGained(Skill.WOODCUTTING, 25);
+        tick += 2;
+        tracker.onInventoryChanges(inventory(item(ItemID.LOGS, 1)));
+        nextTick();
+
+        verify(measurementCreator).createSkillingItemMeasurement(
+                Skill.WOODCUTTING, 25, 25f, composition(ItemID.LOGS), 1);
+    }
+
+    @Test
+    public void dropsXpOlderThanWindow() {
+        tracker.onXpGained(Skill.WOODCUTTING, 25);
+        tick += 3;
+        tracker.onInventoryChanges(inventory(item(ItemID.LOGS, 1)));
+        nextTick();
+
+        verifyNothingSubmitted();
+    }
+
+    @Test
+    public void ignoresItemsMovedBetweenSlots() {
+        tracker.onInventoryChanges(inventory(item(ItemID.RAW_SHRIMPS, 1)));
+        nextTick();
+        tracker.onXpGained(Skill.FISHING, 10);
+        tracker.onInventoryChanges(inventory(null, item(ItemID.RAW_SHRIMPS, 1)));
+        nextTick();
+
+        verifyNothingSubmitted();
+    }
+
+    @Test
+    public void ignoresUninterestingItemsAndSkills() {
+        tracker.onXpGained(Skill.ATTACK, 40);
+        tracker.onInventoryChanges(inventory(item(ItemID.RAW_SHRIMPS, 1)));
+        nextTick();
+        tracker.onXpGained(Skill.FISHING, 10);
+        tracker.onInventoryChanges(inventory(item(ItemID.RAW_SHRIMPS, 1), item(ItemID.COINS_995, 100),
+                item(ItemID.FEATHER, 5)));
+        nextTick();
+
+        verifyNothingSubmitted();
+    }
+
+    @Test
+    public void usesLearnedSkillWhenSeveralHaveXp() {
+        tracker.onXpGained(Skill.FISHING, 10);
+        tracker.onInventoryChanges(inventory(item(ItemID.RAW_SHRIMPS, 1)));
+        nextTick();
+
+        tick += 10;
+        tracker.onXpGained(Skill.COOKING, 30);
+        tracker.onXpGained(Skill.FISHING, 10);
+        tracker.onInventoryChanges(inventory(item(ItemID.RAW_SHRIMPS, 1), item(ItemID.RAW_SHRIMPS, 1),
+                item(ItemID.RAW_ANCHOVIES, 1)));
+        nextTick();
+
+        ItemComposition anchovies = composition(ItemID.RAW_ANCHOVIES);
+        verify(measurementCreator, times(2)).createSkillingItemMeasurement(
+                Skill.FISHING, 10, 10f, composition(ItemID.RAW_SHRIMPS), 1);
+        verify(measurementCreator, never()).createSkillingItemMeasurement(
+                any(), anyInt(), anyFloat(), eq(anchovies), anyLong());
+        verify(writer, times(2)).submit(any());
+    }
+}
@@ -0,0 +1,212 @@
+package net.machpi.runelite.influxdb.activity;
+
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+import net.machpi.runelite.influxdb.InfluxDbConfigCache;
+import net.machpi.runelite.influxdb.MeasurementCreator;
+import net.machpi.runelite.influxdb.write.Measurement;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ActivityStateTest {
+    private InfluxDbConfig config;
+    private MeasurementCreator measurer;
+    private ActivityState activity;
+    private long now;
+
+    @Before
+    public void before() {
+        config = mock(InfluxDbConfig.class);
+        when(config.writeActivity()).thenReturn(true);
+        when(config.activityTimeout()).thenReturn(5);
+        when(config.activityKeepAliveSeconds()).thenReturn(50);
+        InfluxDbConfigCache cache = mock(InfluxDbConfigCache.class);
+        when(cache.get()).thenReturn(config);
+
+        measurer = mock(MeasurementCreator.class);
+        when(measurer.createActivityMeasurement(any()))
+                .thenReturn(Optional.of(Measurement.builder().time(0L).build()));
+        activity = new ActivityState(cache, measurer, () -> now);
+    }
+
+    private void advanceMinutes(long minutes) {
+        now += TimeUnit.MINUTES.toNanos(minutes);
+    }
+
+    private void advanceSeconds(long seconds) {
+        now += TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    private static ActivityState.State state(String skill, String location) {
+        return new ActivityState.State(skill, location, null);
+    }
+
+    @Test
+    public void noStateWithoutEvents() {
+        assertNull(activity.getState());
+    }
+
+    @Test
+    public void highestPriorityWins() {
+        activity.triggerEvent(GameEvent.TRAINING_HITPOINTS);
+        assertEquals(state("HITPOINTS", null), activity.getState());
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        assertEquals(state("ATTACK", null), activity.getState());
+        activity.triggerEvent(GameEvent.TRAINING_SLAYER);
+        assertEquals(state("SLAYER", null), activity.getState());
+
+        activity.triggerEvent(GameEvent.TRAINING_STRENGTH);
+        activity.triggerEvent(GameEvent.TRAINING_HITPOINTS);
+        assertEquals(state("SLAYER", null), activity.getState());
+    }
+
+    @Test
+    public void latestOfSamePriorityWins() {
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        activity.triggerEvent(GameEvent.TRAINING_STRENGTH);
+        assertEquals(state("STRENGTH", null), activity.getState());
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        assertEquals(state("ATTACK", null), activity.getState());
+    }
+
+    @Test
+    public void timedOutSkillFallsBackToLowerPriority() {
+        activity.triggerEvent(GameEvent.TRAINING_HITPOINTS);
+        activity.triggerEvent(GameEvent.TRAINING_STRENGTH);
+        activity.triggerEvent(GameEvent.TRAINING_SLAYER);
+        advanceMinutes(3);
+        activity.triggerEvent(GameEvent.TRAINING_HITPOINTS);
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        activity.checkForTimeout();
+        assertEquals(state("SLAYER", null), activity.getState());
+
+        advanceMinutes(3);
+        activity.checkForTimeout();
+        assertEquals(state("ATTACK", null), activity.getState());
+
+        advanceMinutes(3);
+        activity.checkForTimeout();
+        assertNull(activity.getState());
+    }
+
+    @Test
+    public void timedOutLowerPriorityKeepsState() {
+        activity.triggerEvent(GameEvent.TRAINING_HITPOINTS);
+        advanceMinutes(3);
+        activity.triggerEvent(GameEvent.TRAINING_SLAYER);
+        advanceMinutes(3);
+        activity.checkForTimeout();
+        assertEquals(state("SLAYER", null), activity.getState());
+
+        advanceMinutes(3);
+        activity.checkForTimeout();
+        assertNull(activity.getState());
+    }
+
+    @Test
+    public void clearingEventReplacesLocationAndKeepsSkill() {
+        activity.triggerEvent(GameEvent.IN_GAME);
+        assertEquals(state(null, "In Game"), activity.getState());
+        activity.triggerEvent(GameEvent.TRAINING_FISHING);
+        assertEquals(state("FISHING", "In Game"), activity.getState());
+        activity.triggerEvent(GameEvent.WILDERNESS);
+        assertEquals(state("FISHING", "Wilderness"), activity.getState());
+
+        advanceMinutes(10);
+        activity.checkForTimeout();
+        assertEquals(state(null, "Wilderness"), activity.getState());
+    }
+
+    @Test
+    public void menuTimesOut() {
+        activity.triggerEvent(GameEvent.IN_MENU);
+        advanceMinutes(4);
+        assertEquals(state(null, "In Menu"), activity.getState());
+        advanceMinutes(2);
+        assertNull(activity.getState());
+    }
+
+    @Test
+    public void resetForgetsEveryEvent() {
+        activity.triggerEvent(GameEvent.IN_GAME);
+        activity.triggerEvent(GameEvent.TRAINING_SLAYER);
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        activity.reset();
+        assertNull(activity.getState());
+
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        assertEquals(state("ATTACK", null), activity.getState());
+    }
+
+    @Test
+    public void ignoresEventsWhenDisabled() {
+        when(config.writeActivity()).thenReturn(false);
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        when(config.writeActivity()).thenReturn(true);
+        assertNull(activity.getState());
+    }
+
+    @Test
+    public void keepAliveSuppressesUnchangedState() {
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        assertTrue(activity.measure().isPresent());
+        advanceSeconds(49);
+        assertFalse(activity.measure().isPresent());
+        advanceSeconds(1);
+        assertTrue(activity.measure().isPresent());
+        advanceSeconds(1);
+        assertFalse(activity.measure().isPresent());
+    }
+
+    @Test
+    public void changedStateIsMeasuredImmediately() {
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        assertTrue(activity.measure().isPresent());
+        advanceSeconds(1);
+        activity.triggerEvent(GameEvent.TRAINING_STRENGTH);
+        assertTrue(activity.measure().isPresent());
+        verify(measurer).createActivityMeasurement(state("STRENGTH", null));
+
+        advanceSeconds(1);
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        assertTrue(activity.measure().isPresent());
+    }
+
+    @Test
+    public void zeroKeepAliveMeasuresEveryTime() {
+        when(config.activityKeepAliveSeconds()).thenReturn(0);
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        assertTrue(activity.measure().isPresent());
+        assertTrue(activity.measure().isPresent());
+    }
+
+    @Test
+    public void stateIsMeasuredAgainAfterClearing() {
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        assertTrue(activity.measure().isPresent());
+        advanceMinutes(6);
+        activity.checkForTimeout();
+        assertFalse(activity.measure().isPresent());
+
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        assertTrue(activity.measure().isPresent());
+    }
+
+    @Test
+    public void nothingMeasuredWhenDisabled() {
+        activity.triggerEvent(GameEvent.TRAINING_ATTACK);
+        when(config.writeActivity()).thenReturn(false);
+        assertFalse(activity.measure().isPresent());
+    }
+}
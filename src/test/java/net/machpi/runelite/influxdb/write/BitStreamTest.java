@@ -0,0 +1,90 @@
+package net.machpi.runelite.influxdb.write;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitStreamTest {
+    private static BitReader reader(BitWriter writer) {
+        ByteBuffer buffer = ByteBuffer.allocate(writer.byteLength() + 3);
+        buffer.put(new byte[]{1, 2, 3});
+        writer.writeTo(buffer);
+        return new BitReader(buffer, 3);
+    }
+
+    @Test
+    public void readsValuesAcrossWordBoundaries() {
+        BitWriter writer = new BitWriter();
+        writer.write(0b101, 3);
+        writer.write(-1L, Long.SIZE);
+        writer.write(0x123456789L, 37);
+        writer.writeBit(true);
+        writer.write(Long.MIN_VALUE, Long.SIZE);
+        writer.write(0xFFFF, 7);
+        for (int i = 0; i < 100; i++) {
+            writer.write(i, 13);
+        }
+        assertEquals(3 + 64 + 37 + 1 + 64 + 7 + 1300, writer.bitLength());
+
+        BitReader reader = reader(writer);
+        assertEquals(0b101, reader.read(3));
+        assertEquals(-1L, reader.read(Long.SIZE));
+        assertEquals(0x123456789L, reader.read(37));
+        assertTrue(reader.readBit());
+        assertEquals(Long.MIN_VALUE, reader.read(Long.SIZE));
+        assertEquals(0x7F, reader.read(7));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, reader.read(13));
+        }
+    }
+
+    @Test
+    public void readsSignedValues() {
+        BitWriter writer = new BitWriter();
+        writer.write(-64, 7);
+        writer.write(63, 7);
+        writer.write(-1, 9);
+        writer.write(-2048, 12);
+
+        BitReader reader = reader(writer);
+        assertEquals(-64, reader.readSigned(7));
+        assertEquals(63, reader.readSigned(7));
+        assertEquals(-1, reader.readSigned(9));
+        assertEquals(-2048, reader.readSigned(12));
+    }
+
+    @Test
+    public void readsVarints() {
+        long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+        BitWriter writer = new BitWriter();
+        writer.writeBit(false);
+        for (long value : values) {
+            writer.writeVarint(value);
+        }
+        assertEquals(1 + 8 * (1 + 1 + 1 + 2 + 2 + 5 + 9 + 10), writer.bitLength());
+
+        BitReader reader = reader(writer);
+        assertFalse(reader.readBit());
+        for (long value : values) {
+            assertEquals(value, reader.readVarint());
+        }
+    }
+
+    @Test
+    public void readsZigZagValues() {
+        long[] values = {0, -1, 1, -64, 64, Long.MIN_VALUE, Long.MAX_VALUE};
+        BitWriter writer = new BitWriter();
+        for (long value : values) {
+            writer.writeZigZag(value);
+        }
+
+        BitReader reader = reader(writer);
+        for (long value : values) {
+            assertEquals(value, reader.readZigZag());
+        }
+    }
+}
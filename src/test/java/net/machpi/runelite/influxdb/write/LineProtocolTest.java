@@ -0,0 +1,104 @@
+package net.machpi.runelite.influxdb.write;
+
+import net.machpi.runelite.influxdb.TimestampPrecision;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LineProtocolTest {
+    private static final long TIME = 1_600_000_000_123L;
+
+    private static Measurement.MeasurementBuilder measurement(String name) {
+        return Measurement.builder().series(Series.builder().measurement(name).build()).time(TIME);
+    }
+
+    private static String encode(Measurement m) {
+        return LineProtocol.encode(m, TimestampPrecision.MILLISECONDS);
+    }
+
+    @Test
+    public void escapesMeasurementNames() {
+        assertEquals("rs\\,loot\\ table=x n=1i 1600000000123",
+                encode(measurement("rs,loot table=x").numericValue("n", 1).build()));
+    }
+
+    @Test
+    public void escapesAndSortsTags() {
+        Series series = Series.builder()
+                .measurement("rs_self")
+                .tag("player", "Iron Man")
+                .tag("a=b", "c,d")
+                .tag("empty", "")
+                .build();
+        Measurement m = Measurement.builder().series(series).time(TIME).numericValue("n", 1).build();
+        assertEquals("rs_self,a\\=b=c\\,d,player=Iron\\ Man n=1i 1600000000123", encode(m));
+    }
+
+    @Test
+    public void escapesFieldKeys() {
+        assertEquals("m a\\ b\\,c\\=d=1i 1600000000123",
+                encode(measurement("m").numericValue("a b,c=d", 1).build()));
+    }
+
+    @Test
+    public void replacesNewlines() {
+        assertEquals("m\\ a,tag=x\\ y n=1i 1600000000123", encode(Measurement.builder()
+                .series(Series.builder().measurement("m\na").tag("tag", "x\ny").build())
+                .time(TIME)
+                .numericValue("n", 1)
+                .build()));
+    }
+
+    @Test
+    public void quotesStringFields() {
+        assertEquals("m s=\"say \\\"hi\\\" \\\\o/, = ok\",n=2i 1600000000123",
+                encode(measurement("m").stringValue("s", "say \"hi\" \\o/, = ok").numericValue("n", 2).build()));
+    }
+
+    @Test
+    public void suffixesIntegralFields() {
+        assertEquals("m a=-3i,b=9223372036854775807i,c=7i,d=1i 1600000000123",
+                encode(measurement("m")
+                        .numericValue("a", -3)
+                        .numericValue("b", Long.MAX_VALUE)
+                        .numericValue("c", (short) 7)
+                        .numericValue("d", (byte) 1)
+                        .build()));
+    }
+
+    @Test
+    public void writesFloatingPointWithoutExponent() {
+        assertEquals("m a=1.5,b=0.0,c=12345678901234568000000,d=0.000010,e=0.25 1600000000123",
+                encode(measurement("m")
+                        .numericValue("a", 1.5)
+                        .numericValue("b", 0.0)
+                        .numericValue("c", 1.2345678901234567E22)
+                        .numericValue("d", 1e-5)
+                        .numericValue("e", 0.25f)
+                        .build()));
+    }
+
+    @Test
+    public void skipsNonFiniteFields() {
+        assertEquals("m b=2.0 1600000000123",
+                encode(measurement("m")
+                        .numericValue("a", Double.NaN)
+                        .numericValue("b", 2.0)
+                        .numericValue("c", Double.POSITIVE_INFINITY)
+                        .numericValue("d", Float.NEGATIVE_INFINITY)
+                        .build()));
+    }
+
+    @Test
+    public void skipsMeasurementsWithoutWritableFields() {
+        assertNull(encode(measurement("m").numericValue("a", Double.NaN).build()));
+        assertNull(encode(measurement("m").build()));
+    }
+
+    @Test
+    public void truncatesTimestampsToPrecision() {
+        assertEquals("m n=1i 1600000000",
+                LineProtocol.encode(measurement("m").numericValue("n", 1).build(), TimestampPrecision.SECONDS));
+    }
+}
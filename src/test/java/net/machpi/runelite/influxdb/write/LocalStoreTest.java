@@ -0,0 +1,175 @@
+package net.machpi.runelite.influxdb.write;
+
+import net.machpi.runelite.influxdb.TimestampPrecision;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalStoreTest {
+    private static final Series SERIES = Series.builder().measurement("rs_test").tag("player", "zezima").build();
+    private static final Series OTHER = Series.builder().measurement("rs_other").build();
+    /**
+     * Magic, version and end of the data file.
+     */
+    private static final int DATA_HEADER_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private LocalStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("local");
+        store = new LocalStore(directory);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private void write(Measurement... measurements) throws IOException {
+        store.write(new Batch(Arrays.asList(measurements), Collections.emptySet(), TimestampPrecision.MILLISECONDS), null);
+    }
+
+    private List<Measurement> scan(Series series) {
+        List<Measurement> read = new ArrayList<>();
+        store.scan(series, Long.MIN_VALUE, Long.MAX_VALUE, read::add);
+        return read;
+    }
+
+    private static Measurement point(Series series, long time, Number value) {
+        return Measurement.builder().series(series).time(time).numericValue("value", value).build();
+    }
+
+    @Test
+    public void readsOpenAndReopenedChunks() throws IOException {
+        write(point(SERIES, 1_000, 1), point(OTHER, 1_000, 0.5), point(SERIES, 2_000, 2));
+        // a change of field type seals the open chunk of the series
+        write(point(SERIES, 3_000, 2.5));
+
+        assertEquals(3, scan(SERIES).size());
+        store.close();
+        store.open();
+
+        List<Measurement> read = scan(SERIES);
+        assertEquals(3, read.size());
+        assertEquals(2_000, read.get(1).getTime());
+        assertEquals(2, read.get(1).getNumericValues().get("value").longValue());
+        assertEquals(2.5, read.get(2).getNumericValues().get("value").doubleValue(), 0);
+        assertEquals(1, scan(OTHER).size());
+    }
+
+    @Test
+    public void truncatesAtCorruptChunk() throws IOException {
+        write(point(SERIES, 1_000, 1), point(SERIES, 2_000, 2));
+        write(point(SERIES, 3_000, 2.5));
+        store.close();
+
+        File data = new File(directory, "chunks.dat");
+        try (RandomAccessFile file = new RandomAccessFile(data, "rw")) {
+            int first = DATA_HEADER_SIZE;
+            int second = first + readInt(file, first);
+            file.seek(second);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+
+        store.open();
+        List<Measurement> read = scan(SERIES);
+        assertEquals(2, read.size());
+        assertEquals(2_000, read.get(1).getTime());
+
+        // new chunks are appended where the corrupt one was
+        write(point(SERIES, 4_000, 4.5));
+        store.close();
+        store.open();
+        read = scan(SERIES);
+        assertEquals(3, read.size());
+        assertEquals(4_000, read.get(2).getTime());
+    }
+
+    @Test
+    public void discardsUnrecognizedDataFile() throws IOException {
+        write(point(SERIES, 1_000, 1));
+        store.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, "chunks.dat"), "rw")) {
+            file.writeInt(0);
+        }
+
+        store.open();
+        assertEquals(0, scan(SERIES).size());
+    }
+
+    @Test
+    public void restoresOpenChunksAfterExitingWithoutClosing() throws IOException {
+        write(point(SERIES, 1_000, 1), point(OTHER, 1_000, 0.5));
+        write(point(SERIES, 2_000, 2.5), point(SERIES, 3_000, 3.5));
+
+        LocalStore restored = new LocalStore(copyOf(directory));
+        try {
+            List<Measurement> read = new ArrayList<>();
+            restored.scan(SERIES, Long.MIN_VALUE, Long.MAX_VALUE, read::add);
+            assertEquals(3, read.size());
+            assertEquals(3_000, read.get(2).getTime());
+            read.clear();
+            restored.scan(OTHER, Long.MIN_VALUE, Long.MAX_VALUE, read::add);
+            assertEquals(1, read.size());
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    public void discardsCheckpointOlderThanSealedChunks() throws IOException {
+        write(point(SERIES, 1_000, 1), point(SERIES, 2_000, 2));
+        File stale = folder.newFile("stale.dat");
+        Files.copy(new File(directory, "open.dat").toPath(), stale.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // seals the checkpointed chunk, which restoring the stale checkpoint would duplicate
+        write(point(SERIES, 3_000, 3.5));
+
+        File copy = copyOf(directory);
+        Files.copy(stale.toPath(), new File(copy, "open.dat").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LocalStore restored = new LocalStore(copy);
+        try {
+            List<Measurement> read = new ArrayList<>();
+            restored.scan(SERIES, Long.MIN_VALUE, Long.MAX_VALUE, read::add);
+            assertEquals(2, read.size());
+            assertEquals(2_000, read.get(1).getTime());
+        } finally {
+            restored.close();
+        }
+    }
+
+    /**
+     * Copies the files of a store that wasn't closed, as if the client had exited.
+     */
+    private File copyOf(File source) throws IOException {
+        File copy = folder.newFolder();
+        for (File file : source.listFiles()) {
+            Files.copy(file.toPath(), new File(copy, file.getName()).toPath());
+        }
+        return copy;
+    }
+
+    private static int readInt(RandomAccessFile file, long position) throws IOException {
+        file.seek(position);
+        return file.readInt();
+    }
+}
@@ -0,0 +1,169 @@
+package net.machpi.runelite.influxdb.write;
+
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+import net.machpi.runelite.influxdb.OtlpTemporality;
+import net.machpi.runelite.influxdb.TimestampPrecision;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class OtlpMetricsSinkTest {
+    private static final long START = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final Series LOOT = Series.builder().measurement("rs_loot").build();
+    private static final int TEMPORALITY_DELTA = 1;
+    private static final int TEMPORALITY_CUMULATIVE = 2;
+
+    private final OtlpMetricsSink sink = new OtlpMetricsSink(null, START);
+
+    private static InfluxDbConfig config(OtlpTemporality temporality) {
+        return new InfluxDbConfig() {
+            @Override
+            public String getServerUrl() {
+                return null;
+            }
+
+            @Override
+            public String getDatabase() {
+                return null;
+            }
+
+            @Override
+            public OtlpTemporality otlpTemporality() {
+                return temporality;
+            }
+        };
+    }
+
+    /**
+     * Concatenates bytes, strings as UTF-8 and byte arrays.
+     */
+    private static byte[] concat(Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            if (part instanceof Integer) {
+                out.write((Integer) part);
+            } else if (part instanceof String) {
+                out.writeBytes(((String) part).getBytes(StandardCharsets.UTF_8));
+            } else {
+                out.writeBytes((byte[]) part);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A length-delimited field, given its tag byte, of less than 16384 bytes.
+     */
+    private static byte[] field(int tag, Object... content) {
+        byte[] bytes = concat(content);
+        if (bytes.length < 0x80) {
+            return concat(tag, bytes.length, bytes);
+        }
+        return concat(tag, (bytes.length & 0x7F) | 0x80, bytes.length >>> 7, bytes);
+    }
+
+    private static byte[] fixed64(long value) {
+        byte[] bytes = new byte[Long.BYTES];
+        for (int i = 0; i < Long.BYTES; i++) {
+            bytes[i] = (byte) (value >>> (i * 8));
+        }
+        return bytes;
+    }
+
+    private static byte[] keyValue(String key, String value) {
+        return concat(field(0x0A, key), field(0x12, field(0x0A, value)));
+    }
+
+    private static byte[] request(byte[] resourceAttributes, byte[]... metrics) {
+        return field(0x0A,
+                field(0x0A, resourceAttributes),
+                field(0x12, field(0x0A, field(0x0A, "runelite-influxdb")), concat(Arrays.stream(metrics)
+                        .map(metric -> field(0x12, metric)).toArray())));
+    }
+
+    private static byte[] sumRequest(long start, long time, long value, int temporality) {
+        byte[] point = concat(0x11, fixed64(start), 0x19, fixed64(time), 0x31, fixed64(value));
+        return request(new byte[0], concat(
+                field(0x0A, "rs_loot.n"),
+                field(0x3A, field(0x0A, point), 0x10, temporality, 0x18, 0x01)));
+    }
+
+    private byte[] encodeSum(long timeMillis, long value, OtlpTemporality temporality) {
+        return encodeSum(LOOT, timeMillis, value, temporality);
+    }
+
+    private byte[] encodeSum(Series series, long timeMillis, long value, OtlpTemporality temporality) {
+        Measurement m = Measurement.builder().series(series).time(timeMillis).numericValue("n", value).build();
+        Batch batch = new Batch(Collections.singletonList(m), Collections.singleton(m), TimestampPrecision.MILLISECONDS);
+        return sink.encode(batch, config(temporality));
+    }
+
+    @Test
+    public void encodesGauges() {
+        Series series = Series.builder().measurement("rs_x").tag("player", "zezima").tag("skill", "AGILITY").build();
+        Measurement m = Measurement.builder()
+                .series(series)
+                .time(1_000L)
+                .numericValue("n", 5)
+                .numericValue("f", 1.5)
+                .build();
+        Batch batch = new Batch(Collections.singletonList(m), Collections.emptySet(), TimestampPrecision.MILLISECONDS);
+
+        byte[] attributes = field(0x3A, keyValue("skill", "AGILITY"));
+        long time = TimeUnit.MILLISECONDS.toNanos(1_000);
+        byte[] expected = request(field(0x0A, keyValue("player", "zezima")),
+                concat(field(0x0A, "rs_x.n"),
+                        field(0x2A, field(0x0A, 0x19, fixed64(time), 0x31, fixed64(5), attributes))),
+                concat(field(0x0A, "rs_x.f"),
+                        field(0x2A, field(0x0A, 0x19, fixed64(time), 0x21, fixed64(Double.doubleToLongBits(1.5)),
+                                attributes))));
+        assertArrayEquals(expected, sink.encode(batch, config(OtlpTemporality.DELTA)));
+    }
+
+    @Test
+    public void encodesDeltaSums() {
+        long first = TimeUnit.MILLISECONDS.toNanos(60_000);
+        long second = TimeUnit.MILLISECONDS.toNanos(120_000);
+
+        assertArrayEquals(sumRequest(START, first, 3, TEMPORALITY_DELTA),
+                encodeSum(60_000, 3, OtlpTemporality.DELTA));
+        assertArrayEquals(sumRequest(first, second, 4, TEMPORALITY_DELTA),
+                encodeSum(120_000, 4, OtlpTemporality.DELTA));
+    }
+
+    @Test
+    public void encodesCumulativeSums() {
+        assertArrayEquals(sumRequest(START, TimeUnit.MILLISECONDS.toNanos(60_000), 3, TEMPORALITY_CUMULATIVE),
+                encodeSum(60_000, 3, OtlpTemporality.CUMULATIVE));
+        assertArrayEquals(sumRequest(START, TimeUnit.MILLISECONDS.toNanos(120_000), 7, TEMPORALITY_CUMULATIVE),
+                encodeSum(120_000, 4, OtlpTemporality.CUMULATIVE));
+    }
+
+    @Test
+    public void restartsIdleCumulativeSums() {
+        long idle = TimeUnit.HOURS.toMillis(2);
+        encodeSum(60_000, 3, OtlpTemporality.CUMULATIVE);
+        // another series being exported long after the first evicts it
+        encodeSum(Series.builder().measurement("rs_other").build(), 60_000 + idle, 1, OtlpTemporality.CUMULATIVE);
+
+        assertArrayEquals(sumRequest(TimeUnit.MILLISECONDS.toNanos(60_000 + idle),
+                        TimeUnit.MILLISECONDS.toNanos(120_000 + idle), 4, TEMPORALITY_CUMULATIVE),
+                encodeSum(120_000 + idle, 4, OtlpTemporality.CUMULATIVE));
+    }
+
+    @Test
+    public void keepsActiveCumulativeSums() {
+        long step = TimeUnit.MINUTES.toMillis(50);
+        encodeSum(step, 3, OtlpTemporality.CUMULATIVE);
+        encodeSum(Series.builder().measurement("rs_other").build(), 2 * step, 1, OtlpTemporality.CUMULATIVE);
+
+        assertArrayEquals(sumRequest(START, TimeUnit.MILLISECONDS.toNanos(3 * step), 7, TEMPORALITY_CUMULATIVE),
+                encodeSum(3 * step, 4, OtlpTemporality.CUMULATIVE));
+    }
+}
@@ -0,0 +1,72 @@
+package net.machpi.runelite.influxdb.write;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ProtobufWriterTest {
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void writesVarints() {
+        assertArrayEquals(bytes(0x08, 0x96, 0x01), new ProtobufWriter().varint(1, 150).toByteArray());
+        assertArrayEquals(bytes(0x08, 0x00), new ProtobufWriter().varint(1, 0).toByteArray());
+        assertArrayEquals(bytes(0x10, 0x01), new ProtobufWriter().bool(2, true).toByteArray());
+        assertArrayEquals(bytes(0x08, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01),
+                new ProtobufWriter().varint(1, -1).toByteArray());
+    }
+
+    @Test
+    public void writesMultiByteTags() {
+        assertArrayEquals(bytes(0x80, 0x01, 0x01), new ProtobufWriter().varint(16, 1).toByteArray());
+        assertArrayEquals(bytes(0xF9, 0xFF, 0xFF, 0xFF, 0x0F, 0x02, 0, 0, 0, 0, 0, 0, 0),
+                new ProtobufWriter().fixed64((1 << 29) - 1, 2).toByteArray());
+    }
+
+    @Test
+    public void writesFixed64LittleEndian() {
+        assertArrayEquals(bytes(0x19, 0x08, 0x07, 0x06, 0x05, 0x04, 0x03, 0x02, 0x01),
+                new ProtobufWriter().fixed64(3, 0x0102030405060708L).toByteArray());
+        assertArrayEquals(bytes(0x21, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0xF0, 0x3F),
+                new ProtobufWriter().doubleValue(4, 1.0).toByteArray());
+        assertArrayEquals(bytes(0x19, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF),
+                new ProtobufWriter().fixed64(3, -1).toByteArray());
+    }
+
+    @Test
+    public void writesLengthDelimitedFields() {
+        assertArrayEquals(bytes(0x12, 0x07, 't', 'e', 's', 't', 'i', 'n', 'g'),
+                new ProtobufWriter().string(2, "testing").toByteArray());
+        assertArrayEquals(bytes(0x12, 0x02, 0xC3, 0xA9), new ProtobufWriter().string(2, "\u00e9").toByteArray());
+        assertArrayEquals(bytes(0x1A, 0x03, 0x08, 0x96, 0x01),
+                new ProtobufWriter().message(3, new ProtobufWriter().varint(1, 150)).toByteArray());
+        assertArrayEquals(bytes(0x1A, 0x00), new ProtobufWriter().message(3, new ProtobufWriter()).toByteArray());
+    }
+
+    @Test
+    public void appendsEncodedFields() {
+        ProtobufWriter fields = new ProtobufWriter().varint(1, 150).bool(2, false);
+        assertArrayEquals(bytes(0x0A, 0x01, 'a', 0x08, 0x96, 0x01, 0x10, 0x00),
+                new ProtobufWriter().string(1, "a").append(fields).toByteArray());
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        char[] value = new char[300];
+        Arrays.fill(value, 'a');
+        byte[] encoded = new ProtobufWriter().string(1, new String(value)).varint(2, 1).toByteArray();
+
+        assertEquals(3 + 300 + 2, encoded.length);
+        assertArrayEquals(bytes(0x0A, 0xAC, 0x02, 'a'), Arrays.copyOf(encoded, 4));
+        assertArrayEquals(bytes('a', 0x10, 0x01), Arrays.copyOfRange(encoded, 302, 305));
+    }
+}
@@ -0,0 +1,156 @@
+package net.machpi.runelite.influxdb.write;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeriesChunkTest {
+    private static final Series SERIES = Series.builder().measurement("rs_test").tag("player", "zezima").build();
+
+    private static List<Measurement> roundTrip(List<Measurement> points, long from, long to) {
+        SeriesChunk chunk = new SeriesChunk(7, points.get(0));
+        points.forEach(chunk::add);
+        ByteBuffer buffer = ByteBuffer.allocate(chunk.encodedSize() + 5);
+        buffer.position(5);
+        chunk.writeTo(buffer);
+        assertEquals(buffer.capacity(), buffer.position());
+        assertEquals(chunk.encodedSize(), buffer.getInt(5));
+
+        List<Measurement> read = new ArrayList<>();
+        SeriesChunk.read(buffer, 5, SERIES, from, to, read::add);
+        return read;
+    }
+
+    private static List<Measurement> roundTrip(List<Measurement> points) {
+        return roundTrip(points, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private static Measurement point(long time, long xp, double rate, String activity) {
+        return Measurement.builder()
+                .series(SERIES)
+                .time(time)
+                .numericValue("xp", xp)
+                .numericValue("rate", rate)
+                .stringValue("activity", activity)
+                .build();
+    }
+
+    @Test
+    public void roundTripsEveryFieldType() {
+        List<Measurement> points = Arrays.asList(
+                point(1_000, 0, 0.0, "idle"),
+                point(2_000, 13_034_431, 1.5, "fishing"),
+                point(3_000, 13_034_431, 1.5, "fishing"),
+                point(4_000, -5, -1.5, "idle"),
+                point(5_000, Long.MAX_VALUE, Double.MAX_VALUE, ""),
+                point(6_000, Long.MIN_VALUE, Double.MIN_VALUE, "fishing"),
+                point(7_000, 42, Double.NaN, "\u00e9t\u00e9 \ud83d\udc1f"),
+                point(8_000, 43, Double.NEGATIVE_INFINITY, "idle"),
+                point(9_000, 44, 0.1 + 0.2, "\u00e9t\u00e9 \ud83d\udc1f"));
+        List<Measurement> read = roundTrip(points);
+
+        assertEquals(points.size(), read.size());
+        for (int i = 0; i < points.size(); i++) {
+            Measurement expected = points.get(i);
+            Measurement actual = read.get(i);
+            assertEquals(SERIES, actual.getSeries());
+            assertEquals(expected.getTime(), actual.getTime());
+            assertEquals(expected.getNumericValues().get("xp").longValue(), actual.getNumericValues().get("xp").longValue());
+            assertEquals(Double.doubleToRawLongBits(expected.getNumericValues().get("rate").doubleValue()),
+                    Double.doubleToRawLongBits(actual.getNumericValues().get("rate").doubleValue()));
+            assertEquals(expected.getStringValues(), actual.getStringValues());
+        }
+    }
+
+    @Test
+    public void roundTripsFloatingPointWindows() {
+        List<Measurement> points = new ArrayList<>();
+        double value = 1;
+        for (int i = 0; i < 200; i++) {
+            // alternate between values that reuse the previous XOR window and values that need a new one
+            value = i % 7 == 0 ? value * -3.75 : value + 1;
+            points.add(Measurement.builder().series(SERIES).time((long) i).numericValue("value", value).build());
+        }
+        List<Measurement> read = roundTrip(points);
+
+        assertEquals(points.size(), read.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(points.get(i).getNumericValues().get("value").doubleValue(),
+                    read.get(i).getNumericValues().get("value").doubleValue(), 0);
+        }
+    }
+
+    @Test
+    public void roundTripsTimestampDeltaBoundaries() {
+        long[] deltaOfDeltas = {
+                0, 63, -64, 64, -65, 255, -256, 256, -257, 2047, -2048, 2048, -2049, 1L << 40, -(1L << 40), 0
+        };
+        List<Measurement> points = new ArrayList<>();
+        long time = -1_000;
+        long delta = 600;
+        points.add(Measurement.builder().series(SERIES).time(time).numericValue("n", 0).build());
+        time += delta;
+        points.add(Measurement.builder().series(SERIES).time(time).numericValue("n", 1).build());
+        for (long deltaOfDelta : deltaOfDeltas) {
+            delta += deltaOfDelta;
+            time += delta;
+            points.add(Measurement.builder().series(SERIES).time(time).numericValue("n", points.size()).build());
+        }
+        List<Measurement> read = roundTrip(points);
+
+        assertEquals(points.size(), read.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(points.get(i).getTime(), read.get(i).getTime());
+            assertEquals(i, read.get(i).getNumericValues().get("n").intValue());
+        }
+    }
+
+    @Test
+    public void roundTripsOutOfOrderTimestamps() {
+        List<Measurement> points = Arrays.asList(
+                Measurement.builder().series(SERIES).time(Long.MAX_VALUE / 2).numericValue("n", 1).build(),
+                Measurement.builder().series(SERIES).time(0L).numericValue("n", 2).build(),
+                Measurement.builder().series(SERIES).time(Long.MAX_VALUE / 2).numericValue("n", 3).build());
+        List<Measurement> read = roundTrip(points);
+
+        assertEquals(3, read.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(points.get(i).getTime(), read.get(i).getTime());
+        }
+    }
+
+    @Test
+    public void readsOnlyTheRequestedRange() {
+        List<Measurement> points = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            points.add(point(i * 600L, i, i / 2.0, i % 2 == 0 ? "even" : "odd"));
+        }
+        List<Measurement> read = roundTrip(points, 1_200, 3_000);
+
+        assertEquals(4, read.size());
+        assertEquals(1_200, read.get(0).getTime());
+        assertEquals(3_000, read.get(3).getTime());
+        assertEquals(5, read.get(3).getNumericValues().get("xp").intValue());
+        assertEquals("odd", read.get(3).getStringValues().get("activity"));
+    }
+
+    @Test
+    public void acceptsOnlyTheSameFieldsAndTypes() {
+        SeriesChunk chunk = new SeriesChunk(0, point(0, 1, 1.0, "a"));
+
+        assertTrue(chunk.accepts(point(1, 2, 2.0, "b")));
+        assertFalse(chunk.accepts(Measurement.builder().series(SERIES).time(1L)
+                .numericValue("xp", 1.0).numericValue("rate", 1.0).stringValue("activity", "a").build()));
+        assertFalse(chunk.accepts(Measurement.builder().series(SERIES).time(1L)
+                .numericValue("xp", 1).numericValue("rate", 1.0).build()));
+        assertFalse(chunk.accepts(Measurement.builder().series(SERIES).time(1L)
+                .numericValue("xp", 1).numericValue("rate", 1.0).stringValue("other", "a").build()));
+    }
+}
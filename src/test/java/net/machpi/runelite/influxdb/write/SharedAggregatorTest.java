@@ -0,0 +1,152 @@
+package net.machpi.runelite.influxdb.write;
+
+import net.machpi.runelite.influxdb.InfluxDbConfig;
+import net.machpi.runelite.influxdb.TimestampPrecision;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SharedAggregatorTest {
+    private static final String SERVER = "http://localhost:8086/write?db=runelite";
+
+    private final List<SharedAggregator> aggregators = new ArrayList<>();
+    private final AtomicBoolean misrouted = new AtomicBoolean();
+    private ForwardingSink sink;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        try (ServerSocket free = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            port = free.getLocalPort();
+        }
+        sink = new ForwardingSink(() -> misrouted.set(true));
+    }
+
+    @After
+    public void tearDown() {
+        sink.close();
+        aggregators.forEach(SharedAggregator::close);
+    }
+
+    private SharedAggregator aggregator(int maxPendingLines, InfluxDbConfig config) {
+        SharedAggregator aggregator = new SharedAggregator(maxPendingLines);
+        aggregators.add(aggregator);
+        assertTrue(aggregator.elect(port, HttpLineProtocolSink.destination(config)));
+        return aggregator;
+    }
+
+    private InfluxDbConfig config(String additionalServers) {
+        InfluxDbConfig config = mock(InfluxDbConfig.class);
+        when(config.aggregatorPort()).thenReturn(port);
+        when(config.getAdditionalServers()).thenReturn(additionalServers);
+        return config;
+    }
+
+    private static Batch batch(TimestampPrecision precision, String... lines) {
+        return Batch.ofLines(Arrays.asList(lines), precision);
+    }
+
+    @Test
+    public void acceptedLinesAreDrainedOnce() throws IOException {
+        InfluxDbConfig config = config(SERVER);
+        SharedAggregator aggregator = aggregator(100, config);
+
+        sink.write(batch(TimestampPrecision.MILLISECONDS, "a x=1i 1", "b y=2i 1"), config);
+        sink.write(batch(TimestampPrecision.MILLISECONDS, "c z=3i 2"), config);
+        sink.write(batch(TimestampPrecision.SECONDS, "d w=4i 3"), config);
+
+        Map<TimestampPrecision, List<String>> drained = aggregator.drain();
+        assertEquals(Arrays.asList("a x=1i 1", "b y=2i 1", "c z=3i 2"), drained.get(TimestampPrecision.MILLISECONDS));
+        assertEquals(Collections.singletonList("d w=4i 3"), drained.get(TimestampPrecision.SECONDS));
+        assertTrue(aggregator.drain().isEmpty());
+        assertFalse(misrouted.get());
+    }
+
+    @Test
+    public void rejectsWhileTooManyLinesArePending() throws IOException {
+        InfluxDbConfig config = config(SERVER);
+        SharedAggregator aggregator = aggregator(3, config);
+
+        sink.write(batch(TimestampPrecision.MILLISECONDS, "a x=1i 1", "b y=2i 1"), config);
+        assertThrows(IOException.class,
+                () -> sink.write(batch(TimestampPrecision.MILLISECONDS, "c z=3i 2", "d w=4i 2"), config));
+        assertEquals(2, aggregator.drain().get(TimestampPrecision.MILLISECONDS).size());
+
+        // the connection is still usable, and the batch is accepted once there's room
+        sink.write(batch(TimestampPrecision.MILLISECONDS, "c z=3i 2", "d w=4i 2"), config);
+        assertEquals(Arrays.asList("c z=3i 2", "d w=4i 2"), aggregator.drain().get(TimestampPrecision.MILLISECONDS));
+    }
+
+    @Test
+    public void refusesLinesForAnotherDestination() {
+        SharedAggregator aggregator = aggregator(100, config(SERVER));
+
+        InfluxDbConfig other = config("http://localhost:8086/write?db=other");
+        assertThrows(IOException.class, () -> sink.write(batch(TimestampPrecision.MILLISECONDS, "a x=1i 1"), other));
+        assertTrue(misrouted.get());
+        assertTrue(aggregator.drain().isEmpty());
+    }
+
+    @Test
+    public void destinationIgnoresCredentials() {
+        long destination = HttpLineProtocolSink.destination(config(SERVER + "&u=user&p=pass"));
+        assertEquals(destination, HttpLineProtocolSink.destination(config(SERVER + "&u=other&p=secret")));
+        assertEquals(destination, HttpLineProtocolSink.destination(config(SERVER)));
+        assertNotEquals(destination, HttpLineProtocolSink.destination(config(SERVER + "&rp=weekly")));
+        assertNotEquals(destination, HttpLineProtocolSink.destination(config("")));
+    }
+
+    @Test
+    public void onlyOneClientAggregatesPerPort() {
+        long destination = HttpLineProtocolSink.destination(config(SERVER));
+        SharedAggregator first = aggregator(100, config(SERVER));
+        SharedAggregator second = new SharedAggregator();
+        aggregators.add(second);
+
+        assertFalse(second.elect(port, destination));
+        assertTrue(first.elect(port, destination));
+        assertFalse(second.elect(port, destination));
+    }
+
+    @Test
+    public void nextClientTakesOverWhenAggregatorCloses() throws IOException, InterruptedException {
+        InfluxDbConfig config = config(SERVER);
+        SharedAggregator first = aggregator(100, config);
+        sink.write(batch(TimestampPrecision.MILLISECONDS, "a x=1i 1"), config);
+
+        first.close();
+        SharedAggregator second = new SharedAggregator();
+        aggregators.add(second);
+        // the port is released once the accepting thread has woken up, and electing is retried at every flush
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!second.elect(port, HttpLineProtocolSink.destination(config))) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        // the connection to the closed aggregator fails once, then the batch goes to the new one
+        assertThrows(IOException.class, () -> sink.write(batch(TimestampPrecision.MILLISECONDS, "b y=2i 2"), config));
+        sink.write(batch(TimestampPrecision.MILLISECONDS, "b y=2i 2"), config);
+
+        assertEquals(Collections.singletonList("a x=1i 1"), first.drain().get(TimestampPrecision.MILLISECONDS));
+        assertEquals(Collections.singletonList("b y=2i 2"), second.drain().get(TimestampPrecision.MILLISECONDS));
+    }
+}